@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.dolphinwang.imagecoverflow.test.R;
+
+/**
+ * Drives a {@link CoverFlowView} which is not attached to a window, so the
+ * test decides when frames happen: flings are started with touch events,
+ * then each of their frames is computed and drawn into a bitmap, the way
+ * a display frame would. All methods must be called on the UI thread.
+ */
+final class CoverFlowDriver {
+
+    static final int WIDTH = 720;
+    static final int HEIGHT = 480;
+
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    /**
+     * Longer than the longest fling
+     */
+    private static final int MAX_FRAMES = 1000;
+
+    /**
+     * Opaque covers of a color of their own
+     */
+    static final class CoverAdapter extends CoverFlowAdapter {
+        private final Bitmap[] mImages;
+
+        CoverAdapter(int count, int imageWidth, int imageHeight) {
+            mImages = new Bitmap[count];
+            for (int i = 0; i < count; ++i) {
+                mImages[i] = Bitmap.createBitmap(imageWidth, imageHeight,
+                    Bitmap.Config.ARGB_8888);
+                mImages[i].eraseColor(Color.rgb(i * 37, i * 91, i * 53));
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return mImages.length;
+        }
+
+        @Override
+        public Bitmap getImage(int position) {
+            return mImages[position];
+        }
+    }
+
+    final CoverFlowView<CoverAdapter> view;
+    private final Canvas mCanvas;
+
+    @SuppressWarnings("unchecked")
+    CoverFlowDriver(Context context, CoverAdapter adapter) {
+        view = (CoverFlowView<CoverAdapter>) LayoutInflater.from(context)
+            .inflate(R.layout.cover_flow_test, null);
+        view.setAdapter(adapter);
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    void draw() {
+        view.draw(mCanvas);
+    }
+
+    /**
+     * Swipe from right to left faster than the fastest fling, so covers of
+     * higher positions come into view.
+     */
+    void startFling() {
+        final long downTime = SystemClock.uptimeMillis();
+        touch(MotionEvent.ACTION_DOWN, downTime, 0, WIDTH * 0.9f);
+        for (int i = 1; i <= 4; ++i) {
+            touch(MotionEvent.ACTION_MOVE, downTime, i * 10, WIDTH * (0.9f - i * 0.2f));
+        }
+        touch(MotionEvent.ACTION_UP, downTime, 40, WIDTH * 0.1f);
+    }
+
+    private void touch(int action, long downTime, long elapsed, float x) {
+        final MotionEvent event = MotionEvent.obtain(downTime, downTime + elapsed, action,
+            x, HEIGHT / 2f, 0);
+        view.onTouchEvent(event);
+        event.recycle();
+    }
+
+    /**
+     * Draw the frames of the running animation until it is over, and the
+     * frame it ends in.
+     *
+     * @return frames drawn while the animation ran
+     */
+    int drawAnimation() {
+        final long start = System.nanoTime();
+        int frames = 0;
+        while (frames < MAX_FRAMES && view.updateAnimation(start + frames * FRAME_NANOS)) {
+            view.draw(mCanvas);
+            ++frames;
+        }
+        view.draw(mCanvas);
+        return frames;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ComposeShader;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Shader;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames of a fling, through onDraw(), prepareChild(), makeChildTransformer()
+ * and updatePinnedCovers(), allocate nothing on the UI thread once every
+ * reflection and level of detail is cached. The fling passes covers which
+ * were not on screen in the previous one, so in SHADER mode it creates
+ * reflection shaders, and allocates no more than those.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawAllocationTest {
+
+    /**
+     * Many more covers than the view keeps reflection shaders for, so each
+     * fling brings covers new to it
+     */
+    private static final int ITEM_COUNT = 40;
+
+    private static final int IMAGE_WIDTH = 100;
+    private static final int IMAGE_HEIGHT = 150;
+
+    /**
+     * Room for the reflections and levels of detail of every cover
+     */
+    private static final int CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Times warming up scrolls through all covers, so each is drawn at
+     * every level of detail
+     */
+    private static final int WARM_UP_LAPS = 2;
+
+    /**
+     * Time for generated covers to be delivered to the UI thread
+     */
+    private static final long GENERATE_MILLIS = 200;
+
+    private interface Setup {
+        void apply(CoverFlowView<?> view);
+    }
+
+    @Test
+    public void cachedBitmapFlingDoesNotAllocate() throws InterruptedException {
+        assertFlingAllocates(false, new Setup() {
+            @Override
+            public void apply(CoverFlowView<?> view) {
+                view.setCoverFlowReflectionMode(CoverFlowView.CoverFlowReflectionMode.CACHED_BITMAP);
+            }
+        });
+    }
+
+    @Test
+    public void shaderFlingOnlyAllocatesNewShaders() throws InterruptedException {
+        assertFlingAllocates(true, new Setup() {
+            @Override
+            public void apply(CoverFlowView<?> view) {
+                view.setCoverFlowReflectionMode(CoverFlowView.CoverFlowReflectionMode.SHADER);
+            }
+        });
+    }
+
+    @Test
+    public void culledLevelOfDetailFlingDoesNotAllocate() throws InterruptedException {
+        assertFlingAllocates(false, new Setup() {
+            @Override
+            public void apply(CoverFlowView<?> view) {
+                view.setLevelOfDetailEnabled(true);
+                view.setOcclusionCullingEnabled(true);
+            }
+        });
+    }
+
+    /**
+     * @param reflectionShaders true if the fling may create reflection
+     *                          shaders, for the covers new to it
+     */
+    @SuppressWarnings("deprecation")
+    private static void assertFlingAllocates(boolean reflectionShaders, final Setup setup)
+        throws InterruptedException {
+        final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final CoverFlowDriver[] driver = new CoverFlowDriver[1];
+        final int[] shaderAllocations = new int[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                driver[0] = new CoverFlowDriver(instrumentation.getContext(),
+                    new CoverFlowDriver.CoverAdapter(ITEM_COUNT, IMAGE_WIDTH, IMAGE_HEIGHT));
+                driver[0].view.setCoverCacheSize(CACHE_SIZE);
+                driver[0].view.setMetrics(new CoverFlowMetrics());
+                setup.apply(driver[0].view);
+                driver[0].draw();
+
+                // Once to load the classes involved
+                reflectionShaderAllocations();
+                shaderAllocations[0] = reflectionShaderAllocations();
+            }
+        });
+
+        final int[] passed = new int[1];
+        final Runnable fling = new Runnable() {
+            @Override
+            public void run() {
+                final int top = driver[0].view.getTopImageIndex();
+                driver[0].startFling();
+                driver[0].drawAnimation();
+                passed[0] += (driver[0].view.getTopImageIndex() - top + ITEM_COUNT) % ITEM_COUNT;
+            }
+        };
+        for (int flings = 0; flings < WARM_UP_LAPS * ITEM_COUNT
+            && passed[0] < WARM_UP_LAPS * ITEM_COUNT; ++flings) {
+            instrumentation.runOnMainSync(fling);
+            Thread.sleep(GENERATE_MILLIS);
+            instrumentation.waitForIdleSync();
+        }
+
+        final CoverFlowMetrics metrics = driver[0].view.getMetrics();
+        final int[] frames = new int[1];
+        final int[] allocations = new int[1];
+        final long[] misses = new long[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                driver[0].startFling();
+                final long missesBefore = metrics.getReflectionMissCount();
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                frames[0] = driver[0].drawAnimation();
+                allocations[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+
+                misses[0] = metrics.getReflectionMissCount() - missesBefore;
+            }
+        });
+
+        assertTrue(frames[0] > 0);
+        if (reflectionShaders) {
+            assertTrue("no covers new to the fling", misses[0] > 0);
+            assertTrue("objects allocated by " + frames[0] + " frames of a fling creating "
+                    + misses[0] + " reflection shaders of " + shaderAllocations[0]
+                    + " objects each: " + allocations[0],
+                allocations[0] <= misses[0] * shaderAllocations[0]);
+        } else {
+            assertEquals("reflections missing", 0, misses[0]);
+            assertEquals("objects allocated by " + frames[0] + " frames of a fling", 0,
+                allocations[0]);
+        }
+    }
+
+    /**
+     * @return objects allocated to create and draw one reflection shader of
+     * a cover, the way the view does with a gradient it already has
+     */
+    @SuppressWarnings("deprecation")
+    private static int reflectionShaderAllocations() {
+        final Bitmap cover = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT,
+            Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT,
+            Bitmap.Config.ARGB_8888));
+        final Matrix flip = new Matrix();
+        final Shader mask = new LinearGradient(0, 0, 0, IMAGE_HEIGHT,
+            0x70FFFFFF, 0x00FFFFFF, Shader.TileMode.CLAMP);
+        final Paint paint = new Paint();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final BitmapShader bitmapShader = new BitmapShader(cover,
+            Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        bitmapShader.setLocalMatrix(flip);
+        paint.setShader(new ComposeShader(bitmapShader, mask, PorterDuff.Mode.DST_IN));
+        canvas.drawRect(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT, paint);
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        return allocations;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Time CoverGenerator takes to create the reflection of a cover, for
+ * typical cover sizes, into a new bitmap and into a pooled one. Reflections
+ * are drawn by Skia, so unlike the JMH benchmarks this runs on a device.
+ * Median times are logged under the tag ReflectionBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReflectionBenchmark {
+
+    private static final String TAG = "ReflectionBenchmark";
+
+    /**
+     * Width and height of covers, from a phone list to a tablet wall
+     */
+    private static final int[][] COVER_SIZES = {{200, 300}, {400, 600}, {800, 1200}};
+
+    /**
+     * As reflectionHeight="30%"
+     */
+    private static final float REFLECTION_HEIGHT = 0.3f;
+
+    private static final int WARM_UP_RUNS = 20;
+    private static final int MEASURED_RUNS = 100;
+
+    @Test
+    public void createReflection() {
+        for (int[] size : COVER_SIZES) {
+            report("new bitmap", size, measure(size, null));
+        }
+    }
+
+    @Test
+    public void createReflectionIntoPooledBitmap() {
+        for (int[] size : COVER_SIZES) {
+            // Room for the one reflection taken and given back each run
+            final BitmapPool pool = new BitmapPool(size[0] * size[1] * 4);
+            report("pooled bitmap", size, measure(size, pool));
+        }
+    }
+
+    /**
+     * @return median nanoseconds to create a reflection of a cover of size
+     */
+    private static long measure(int[] size, BitmapPool pool) {
+        final Bitmap cover = Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888);
+        cover.eraseColor(Color.rgb(40, 90, 160));
+
+        final long[] nanos = new long[MEASURED_RUNS];
+        for (int run = -WARM_UP_RUNS; run < MEASURED_RUNS; ++run) {
+            final long start = System.nanoTime();
+            final Bitmap reflection = BitmapUtils.createReflectedBitmap(cover,
+                REFLECTION_HEIGHT, pool);
+            final long end = System.nanoTime();
+
+            assertNotNull(reflection);
+            if (run >= 0) {
+                nanos[run] = end - start;
+            }
+            if (pool == null || !pool.put(reflection)) {
+                reflection.recycle();
+            }
+        }
+        cover.recycle();
+
+        Arrays.sort(nanos);
+        return nanos[MEASURED_RUNS / 2];
+    }
+
+    private static void report(String target, int[] size, long nanos) {
+        Log.i(TAG, "reflection of " + size[0] + "x" + size[1] + " cover into " + target
+            + ": " + nanos / 1000 + " us");
+    }
+}
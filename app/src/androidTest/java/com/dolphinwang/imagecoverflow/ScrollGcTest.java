@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.annotation.TargetApi;
+import android.app.Instrumentation;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Scrolling through covers never drawn before creates their reflections in
+ * CoverGenerator and inserts them into a full CoverCache, once per cover,
+ * without a single explicit garbage collection.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScrollGcTest {
+
+    private static final int NEW_COVERS = 100;
+
+    /**
+     * Enough covers that scrolling never comes back to one
+     */
+    private static final int ITEM_COUNT = NEW_COVERS * 2;
+
+    private static final int IMAGE_WIDTH = 60;
+    private static final int IMAGE_HEIGHT = 90;
+
+    /**
+     * Room for a few reflections, so inserts evict and evicted buffers
+     * are reused
+     */
+    private static final int CACHE_SIZE = IMAGE_WIDTH * IMAGE_HEIGHT * 4;
+
+    /**
+     * Time for generated covers to be delivered to the UI thread
+     */
+    private static final long GENERATE_MILLIS = 100;
+
+    @Test
+    public void scrollingThroughNewCoversRequestsNoGc() throws InterruptedException {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+
+        // An explicit collection blocks the thread asking for it, make sure
+        // this runtime counts it
+        final long probe = blockingGcCount();
+        Runtime.getRuntime().gc();
+        assumeTrue(blockingGcCount() > probe);
+
+        final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final CoverFlowDriver[] driver = new CoverFlowDriver[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                driver[0] = new CoverFlowDriver(instrumentation.getContext(),
+                    new CoverFlowDriver.CoverAdapter(ITEM_COUNT, IMAGE_WIDTH, IMAGE_HEIGHT));
+                driver[0].view.setCoverCacheSize(CACHE_SIZE);
+                driver[0].draw();
+            }
+        });
+        Thread.sleep(GENERATE_MILLIS);
+        instrumentation.waitForIdleSync();
+
+        final CoverCache.Stats stats = driver[0].view.getCoverCacheStats();
+        final int putsBefore = stats.getPutCount();
+        final long gcBefore = blockingGcCount();
+
+        final Runnable fling = new Runnable() {
+            @Override
+            public void run() {
+                driver[0].startFling();
+                driver[0].drawAnimation();
+            }
+        };
+        for (int flings = 0; flings < ITEM_COUNT
+            && stats.getPutCount() - putsBefore < NEW_COVERS; ++flings) {
+            instrumentation.runOnMainSync(fling);
+            Thread.sleep(GENERATE_MILLIS);
+            instrumentation.waitForIdleSync();
+        }
+
+        final int puts = stats.getPutCount() - putsBefore;
+        assertTrue("only " + puts + " covers inserted", puts >= NEW_COVERS);
+        assertEquals("collections while inserting " + puts + " covers", 0,
+            blockingGcCount() - gcBefore);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static long blockingGcCount() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.blocking-gc-count"));
+    }
+}
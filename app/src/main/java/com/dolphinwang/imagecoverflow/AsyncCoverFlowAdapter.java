@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Adapter whose images are loaded off the UI thread. {@link CoverFlowView}
+ * draws {@link #getPlaceholder(int)} for a position until
+ * {@link #loadImage(int, ImageCallback)} has delivered the real image.
+ */
+public abstract class AsyncCoverFlowAdapter extends CoverFlowAdapter {
+
+	public interface ImageCallback {
+		/**
+		 * May be called from any thread. Pass null if the image could not be
+		 * loaded, the placeholder will be kept for that position.
+		 */
+		void onImageLoaded(int position, Bitmap image);
+	}
+
+	/**
+	 * Called on the UI thread, must be cheap and must not return null.
+	 */
+	public abstract Bitmap getPlaceholder(int position);
+
+	/**
+	 * Called on a background thread. Implementations either decode the image
+	 * right here or hand the request to their own loader, but must call
+	 * callback exactly once.
+	 */
+	public abstract void loadImage(int position, ImageCallback callback);
+
+	@Override
+	public Bitmap getImage(int position) {
+		return getPlaceholder(position);
+	}
+}
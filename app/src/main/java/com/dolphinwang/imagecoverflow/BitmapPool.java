@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.Bitmap;
+import android.support.v4.graphics.BitmapCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Pool of mutable bitmaps bucketed by width, height and config, so buffers
+ * of evicted reflections and scaled covers can be drawn into again instead of
+ * allocating new ones. Thread safe.
+ */
+public class BitmapPool {
+
+    private final HashMap<Long, ArrayList<Bitmap>> mBuckets = new HashMap<Long, ArrayList<Bitmap>>();
+
+    /**
+     * Pooled bitmaps, oldest first
+     */
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+
+    private int mMaxSize;
+    private int mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return a pooled bitmap of exactly this size and config with undefined
+     * content, or null if there is none.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        final ArrayList<Bitmap> bucket = mBuckets.get(keyOf(width, height, config));
+        if (bucket == null || bucket.isEmpty()) {
+            mMissCount++;
+            return null;
+        }
+
+        final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        mOrder.remove(bitmap);
+        mSize -= BitmapCompat.getAllocationByteCount(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Offer a bitmap nobody draws any more.
+     *
+     * @return false if the bitmap was not taken, caller still owns it
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+            || bitmap.getConfig() == null) {
+            return false;
+        }
+
+        final int size = BitmapCompat.getAllocationByteCount(bitmap);
+        if (size > mMaxSize) {
+            return false;
+        }
+
+        final long key = keyOf(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        mOrder.addLast(bitmap);
+        mSize += size;
+        mPutCount++;
+
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * Recycle pooled bitmaps, oldest first, until the pool is not larger than
+     * maxSize bytes.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mOrder.isEmpty()) {
+            final Bitmap bitmap = mOrder.removeFirst();
+            mBuckets.get(keyOf(bitmap.getWidth(), bitmap.getHeight(),
+                bitmap.getConfig())).remove(bitmap);
+            mSize -= BitmapCompat.getAllocationByteCount(bitmap);
+            mEvictionCount++;
+            bitmap.recycle();
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Number of {@link #get} calls which returned a pooled bitmap
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Number of {@link #get} calls which found no bitmap of matching size
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final int accesses = mHitCount + mMissCount;
+        final int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return "BitmapPool[size=" + mSize + ",maxSize=" + mMaxSize + ",hits="
+            + mHitCount + ",misses=" + mMissCount + ",hitRate=" + hitPercent + "%]";
+    }
+
+    private static long keyOf(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+}
@@ -17,6 +17,7 @@ package com.dolphinwang.imagecoverflow;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Paint;
@@ -26,6 +27,15 @@ import android.graphics.Shader.TileMode;
 public class BitmapUtils {
     public static Bitmap createReflectedBitmap(Bitmap srcBitmap,
             float reflectHeight) {
+        return createReflectedBitmap(srcBitmap, reflectHeight, null);
+    }
+
+    /**
+     * @param pool if not null, the reflection is drawn into a pooled bitmap
+     *             of matching size when there is one
+     */
+    public static Bitmap createReflectedBitmap(Bitmap srcBitmap,
+            float reflectHeight, BitmapPool pool) {
         if (null == srcBitmap) {
             return null;
         }
@@ -40,21 +50,24 @@ public class BitmapUtils {
             return null;
         }
 
-        // The matrix
+        // The matrix, flip the bottom of source to the top of reflection
         Matrix matrix = new Matrix();
-        matrix.preScale(1, -1);
+        matrix.setScale(1, -1);
+        matrix.postTranslate(0, srcHeight);
 
         try {
             // The reflection bitmap, width is same with original's
-            Bitmap reflectionBitmap = Bitmap.createBitmap(srcBitmap, 0,
-                    srcHeight - reflectionHeight, reflectionWidth,
-                    reflectionHeight, matrix, false);
-
+            Bitmap reflectionBitmap = pool != null ? pool.get(reflectionWidth,
+                    reflectionHeight, Bitmap.Config.ARGB_8888) : null;
             if (null == reflectionBitmap) {
-                return null;
+                reflectionBitmap = Bitmap.createBitmap(reflectionWidth,
+                        reflectionHeight, Bitmap.Config.ARGB_8888);
+            } else {
+                reflectionBitmap.eraseColor(Color.TRANSPARENT);
             }
 
             Canvas canvas = new Canvas(reflectionBitmap);
+            canvas.drawBitmap(srcBitmap, matrix, null);
 
             Paint paint = new Paint();
             paint.setAntiAlias(true);
@@ -78,4 +91,43 @@ public class BitmapUtils {
 
         return null;
     }
+
+    /**
+     * Scale srcBitmap to width x height with filtering.
+     *
+     * @param pool if not null, the result is drawn into a pooled bitmap
+     *             of matching size when there is one
+     */
+    public static Bitmap createScaledBitmap(Bitmap srcBitmap, int width,
+            int height, BitmapPool pool) {
+        if (null == srcBitmap || width <= 0 || height <= 0) {
+            return null;
+        }
+
+        final Bitmap.Config config = srcBitmap.getConfig() != null
+                ? srcBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+
+        try {
+            Bitmap scaledBitmap = pool != null ? pool.get(width, height, config)
+                    : null;
+            if (null == scaledBitmap) {
+                scaledBitmap = Bitmap.createBitmap(width, height, config);
+            } else {
+                scaledBitmap.eraseColor(Color.TRANSPARENT);
+            }
+
+            Matrix matrix = new Matrix();
+            matrix.setScale((float) width / srcBitmap.getWidth(),
+                    (float) height / srcBitmap.getHeight());
+
+            Canvas canvas = new Canvas(scaledBitmap);
+            canvas.drawBitmap(srcBitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+            return scaledBitmap;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Tells a {@link CoverFlowView} which part of its cache budgets to use while
+ * the system is short of memory, and holds the configured budget of its
+ * image cache. Budgets grow back once no trim request arrived for
+ * RESTORE_DELAY. All methods must be called on the UI thread.
+ * <p>
+ * Trim requests arrive through {@link ComponentCallbacks2} registered on
+ * Ice Cream Sandwich and later. Before that the interface does not exist
+ * and callbacks can not be registered, {@link #onLowMemory()} has to be
+ * forwarded by the app.
+ */
+class CacheMemoryManager {
+
+    interface Callback {
+        /**
+         * Called when the part of configured budgets in effect changed.
+         */
+        void onTrimFactorChanged(float trimFactor);
+    }
+
+    private static final long RESTORE_DELAY = 30 * 1000;
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final int mHeapSize;
+
+    private int mImageCacheSize;
+
+    /**
+     * Part of configured budgets in effect, 1 if there is no memory pressure
+     */
+    private float mTrimFactor = 1;
+
+    /**
+     * Registered trim callbacks, only created on Ice Cream Sandwich and
+     * later so the class is never loaded before
+     */
+    private ComponentCallbacks mComponentCallbacks;
+
+    private final Runnable mRestoreRunnable = new Runnable() {
+        @Override
+        public void run() {
+            setTrimFactor(1);
+        }
+    };
+
+    CacheMemoryManager(Context context, Callback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = callback;
+
+        final ActivityManager am = (ActivityManager) context
+            .getSystemService(Context.ACTIVITY_SERVICE);
+        mHeapSize = 1024 * 1024 * am.getMemoryClass();
+
+        // Target ~12% of the available heap.
+        mImageCacheSize = mHeapSize / 8;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    void register() {
+        if (mComponentCallbacks == null
+            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            mComponentCallbacks = new TrimCallbacks();
+            mContext.registerComponentCallbacks(mComponentCallbacks);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    void unregister() {
+        if (mComponentCallbacks != null) {
+            mContext.unregisterComponentCallbacks(mComponentCallbacks);
+            mComponentCallbacks = null;
+        }
+        mHandler.removeCallbacks(mRestoreRunnable);
+    }
+
+    void setImageCacheSize(int bytes) {
+        mImageCacheSize = Math.max(0, bytes);
+        mCallback.onTrimFactorChanged(mTrimFactor);
+    }
+
+    int getHeapSize() {
+        return mHeapSize;
+    }
+
+    float getTrimFactor() {
+        return mTrimFactor;
+    }
+
+    int getImageCacheSize() {
+        return (int) (mImageCacheSize * mTrimFactor);
+    }
+
+    void onTrimMemory(int level) {
+        setTrimFactor(trimFactorFor(level));
+
+        mHandler.removeCallbacks(mRestoreRunnable);
+        mHandler.postDelayed(mRestoreRunnable, RESTORE_DELAY);
+    }
+
+    void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    private void setTrimFactor(float trimFactor) {
+        if (mTrimFactor != trimFactor) {
+            mTrimFactor = trimFactor;
+            mCallback.onTrimFactorChanged(trimFactor);
+        }
+    }
+
+    /**
+     * Levels are inlined constants of ComponentCallbacks2, reading them does
+     * not load the interface.
+     */
+    private static float trimFactorFor(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // Process is about to be killed, give everything back. Caches
+            // still keep what is drawn if the view is in the foreground.
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is drawn, keep enough to come back quickly
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private class TrimCallbacks implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            CacheMemoryManager.this.onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            CacheMemoryManager.this.onLowMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.graphics.BitmapCompat;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Cache of bitmaps derived from covers, reflections and levels of detail,
+ * under one byte budget. Every {@link CoverFlowView} creates its own, but
+ * several views, or a view re-created after a configuration change, can
+ * share one through {@link CoverFlowView#setCoverCache(CoverCache)}. Views
+ * sharing a cache must use adapters with stable ids from one id space and
+ * the same reflection settings.
+ * <p>
+ * Bitmaps a view has drawn in its last frame are pinned: they stay valid
+ * even if another view evicts them, and are released once unpinned.
+ * <p>
+ * Eviction listeners and memory pressure are per view. Evicted bitmaps are
+ * offered to the listeners of all attached views, and the budget shrinks
+ * to the smallest part any attached view asks for.
+ * <p>
+ * Must be used on the UI thread.
+ */
+public class CoverCache {
+
+    /**
+     * Hit statistics of one view
+     */
+    public static class Stats {
+        private int mHitCount;
+        private int mMissCount;
+        private int mPutCount;
+
+        public int getHitCount() {
+            return mHitCount;
+        }
+
+        public int getMissCount() {
+            return mMissCount;
+        }
+
+        public int getPutCount() {
+            return mPutCount;
+        }
+
+        public void reset() {
+            mHitCount = mMissCount = mPutCount = 0;
+        }
+
+        @Override
+        public String toString() {
+            final int accesses = mHitCount + mMissCount;
+            final int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+            return "CoverCache.Stats[hits=" + mHitCount + ",misses=" + mMissCount
+                + ",puts=" + mPutCount + ",hitRate=" + hitPercent + "%]";
+        }
+    }
+
+    /**
+     * Settings of one view, which count while the view is attached
+     */
+    static final class Client {
+        private float mTrimFactor = 1;
+        private CoverFlowView.ReflectionEvictionListener mEvictionListener;
+    }
+
+    private static class Pin {
+        int count;
+        /**
+         * Left the cache while pinned, release on last unpin
+         */
+        boolean removed;
+        boolean evicted;
+    }
+
+    private static CoverCache sSharedInstance;
+
+    private final LongLruCache<Bitmap> mCache = new LongLruCache<Bitmap>(
+        Integer.MAX_VALUE) {
+        @Override
+        protected int sizeOf(long key, Bitmap bitmap) {
+            return BitmapCompat.getAllocationByteCount(bitmap);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, long key,
+                                    Bitmap oldValue, Bitmap newValue) {
+            if (oldValue == null || oldValue == newValue || oldValue.isRecycled()) {
+                return;
+            }
+
+            final Pin pin = mPins.get(oldValue);
+            if (pin != null) {
+                if (!pin.removed) {
+                    mCachedPinCount--;
+                }
+                pin.removed = true;
+                pin.evicted = evicted;
+                return;
+            }
+
+            release(oldValue, evicted);
+        }
+    };
+
+    private final IdentityHashMap<Bitmap, Pin> mPins = new IdentityHashMap<Bitmap, Pin>();
+    /**
+     * Released pins, covers enter and leave the screen every frame of a
+     * fling and pinning them allocates nothing
+     */
+    private final ArrayList<Pin> mFreePins = new ArrayList<Pin>();
+    /**
+     * Pinned bitmaps which are still in the cache
+     */
+    private int mCachedPinCount;
+
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Attached views
+     */
+    private final ArrayList<Client> mClients = new ArrayList<Client>();
+
+    /**
+     * Configured byte budget. Enforced here instead of by max size of mCache
+     * so it can change at runtime.
+     */
+    private int mMaxSize;
+
+    /**
+     * Cache of ~5% of the heap.
+     */
+    public CoverCache(Context context) {
+        this(getDefaultSize(context));
+    }
+
+    public CoverCache(int maxSize) {
+        mMaxSize = maxSize;
+        mBitmapPool = new BitmapPool(getPoolSize());
+    }
+
+    /**
+     * Cache shared by the whole process, created on first use.
+     */
+    public static CoverCache getSharedInstance(Context context) {
+        if (sSharedInstance == null) {
+            sSharedInstance = new CoverCache(context.getApplicationContext());
+        }
+        return sSharedInstance;
+    }
+
+    /**
+     * @param kind {@link CoverGenerator#KIND_REFLECTION} or a level of detail
+     */
+    Bitmap get(long itemId, int kind, Stats stats) {
+        final Bitmap bitmap = mCache.get(itemId, kind);
+        if (bitmap != null) {
+            stats.mHitCount++;
+        } else {
+            stats.mMissCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Insert a derived bitmap, least recently used ones are evicted to keep
+     * the cache inside its byte budget.
+     */
+    void put(long itemId, int kind, Bitmap bitmap, Stats stats) {
+        stats.mPutCount++;
+        mCache.put(itemId, kind, bitmap);
+        trimToSize();
+    }
+
+    void remove(long itemId, int kind) {
+        mCache.remove(itemId, kind);
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Keep bitmap valid while it is on screen, even if it leaves the cache.
+     */
+    void pin(Bitmap bitmap) {
+        Pin pin = mPins.get(bitmap);
+        if (pin == null) {
+            final int free = mFreePins.size();
+            pin = free > 0 ? mFreePins.remove(free - 1) : new Pin();
+            mPins.put(bitmap, pin);
+            // Pinned as they are drawn, right after they are taken from
+            // the cache
+            mCachedPinCount++;
+        }
+        pin.count++;
+    }
+
+    void unpin(Bitmap bitmap) {
+        final Pin pin = mPins.get(bitmap);
+        if (pin == null || --pin.count > 0) {
+            return;
+        }
+
+        mPins.remove(bitmap);
+        final boolean removed = pin.removed;
+        if (!removed) {
+            mCachedPinCount--;
+        }
+        final boolean evicted = pin.evicted;
+        pin.removed = pin.evicted = false;
+        mFreePins.add(pin);
+
+        if (removed && !bitmap.isRecycled()) {
+            release(bitmap, evicted);
+        }
+    }
+
+    void attach(Client client) {
+        mClients.add(client);
+        applyMaxSize();
+    }
+
+    void detach(Client client) {
+        mClients.remove(client);
+        applyMaxSize();
+    }
+
+    /**
+     * @return number of views attached to a window which use this cache
+     */
+    public int getViewCount() {
+        return mClients.size();
+    }
+
+    public void setMaxSize(int maxSize) {
+        mMaxSize = Math.max(0, maxSize);
+        applyMaxSize();
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return bytes held by the cache
+     */
+    public int getSize() {
+        return mCache.size();
+    }
+
+    /**
+     * Only part trimFactor of the budget is used while client is attached,
+     * until it is set back to 1.
+     */
+    void setTrimFactor(Client client, float trimFactor) {
+        if (client.mTrimFactor != trimFactor) {
+            client.mTrimFactor = trimFactor;
+            if (mClients.contains(client)) {
+                applyMaxSize();
+            }
+        }
+    }
+
+    /**
+     * Pool which recycles buffers of evicted bitmaps
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    void setEvictionListener(Client client,
+                             CoverFlowView.ReflectionEvictionListener listener) {
+        client.mEvictionListener = listener;
+    }
+
+    private void applyMaxSize() {
+        trimToSize();
+        mBitmapPool.setMaxSize(getPoolSize());
+    }
+
+    /**
+     * Keep as many covers as are pinned and cached whatever the budget. The
+     * drawn ones are the most recently used, dropping them would create them
+     * again on the next frame.
+     */
+    private void trimToSize() {
+        mCache.trimToSize(getEffectiveMaxSize(), mCachedPinCount);
+    }
+
+    /**
+     * @return part of the budget in effect under the memory pressure of the
+     * attached views
+     */
+    private int getEffectiveMaxSize() {
+        float trimFactor = 1;
+        for (int i = 0, count = mClients.size(); i < count; i++) {
+            trimFactor = Math.min(trimFactor, mClients.get(i).mTrimFactor);
+        }
+        return (int) (mMaxSize * trimFactor);
+    }
+
+    private int getPoolSize() {
+        // A quarter of the cache.
+        return getEffectiveMaxSize() / 4;
+    }
+
+    private void release(Bitmap bitmap, boolean evicted) {
+        if (evicted) {
+            for (int i = 0, count = mClients.size(); i < count; i++) {
+                final CoverFlowView.ReflectionEvictionListener listener =
+                    mClients.get(i).mEvictionListener;
+                if (listener != null && listener.onReflectionEvicted(bitmap)) {
+                    return;
+                }
+            }
+        }
+        if (!mBitmapPool.put(bitmap)) {
+            bitmap.recycle();
+        }
+    }
+
+    private static int getDefaultSize(Context context) {
+        final ActivityManager am = (ActivityManager) context
+            .getSystemService(Context.ACTIVITY_SERVICE);
+        final int memClass = am.getMemoryClass();
+        // Target ~5% of the available heap.
+        return 1024 * 1024 * memClass / 21;
+    }
+}
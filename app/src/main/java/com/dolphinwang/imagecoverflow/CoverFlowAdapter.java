@@ -20,7 +20,17 @@ import android.database.DataSetObserver;
 import android.graphics.Bitmap;
 
 public abstract class CoverFlowAdapter {
-	private final DataSetObservable mDataSetObservable = new DataSetObservable();
+	private final CoverFlowDataSetObservable mDataSetObservable = new CoverFlowDataSetObservable();
+
+	/**
+	 * Observer which is told about changes of single items, plain
+	 * DataSetObservers get onChanged() instead.
+	 */
+	public static abstract class ItemObserver extends DataSetObserver {
+		public void onItemChanged(int position) {
+			onChanged();
+		}
+	}
 
 	public void registerDataSetObserver(DataSetObserver observer) {
 		mDataSetObservable.registerObserver(observer);
@@ -38,6 +48,31 @@ public abstract class CoverFlowAdapter {
 		mDataSetObservable.notifyInvalidated();
 	}
 
+	/**
+	 * Image of position changed, anything cached for it is dropped.
+	 */
+	public void notifyItemChanged(int position) {
+		mDataSetObservable.notifyItemChanged(position);
+	}
+
+	/**
+	 * Identity of the item at position, used to key everything derived from
+	 * its image. Ids must stay the same for the same image.
+	 */
+	public long getItemId(int position) {
+		return position;
+	}
+
+	/**
+	 * If true, ids returned by {@link #getItemId(int)} survive
+	 * {@link #notifyDataSetChanged()} and so do the reflections built for
+	 * them. Changed items must then be reported with
+	 * {@link #notifyItemChanged(int)}.
+	 */
+	public boolean hasStableIds() {
+		return false;
+	}
+
 	public int getItemViewType(int position) {
 		return 0;
 	}
@@ -49,4 +84,39 @@ public abstract class CoverFlowAdapter {
 	public abstract int getCount();
 
 	public abstract Bitmap getImage(int position);
+
+	/**
+	 * Size hint which lets {@link CoverFlowView} lay covers out without
+	 * calling {@link #getImage(int)}. Adapters which know their image sizes,
+	 * or only use one size, should override it. Only the aspect ratio is
+	 * used, unless the view wraps the height of its covers.
+	 *
+	 * @param outSize receives width and height of the image
+	 * @return false if the size is not known without the image
+	 */
+	public boolean getImageSize(int position, int[] outSize) {
+		return false;
+	}
+
+	/**
+	 * Hint that position is about to scroll into view, adapters backed by
+	 * slow storage can start warming their own cache here.
+	 */
+	public void prefetchImage(int position) {
+	}
+
+	private static class CoverFlowDataSetObservable extends DataSetObservable {
+		public void notifyItemChanged(int position) {
+			synchronized (mObservers) {
+				for (int i = mObservers.size() - 1; i >= 0; i--) {
+					final DataSetObserver observer = mObservers.get(i);
+					if (observer instanceof ItemObserver) {
+						((ItemObserver) observer).onItemChanged(position);
+					} else {
+						observer.onChanged();
+					}
+				}
+			}
+		}
+	}
 }
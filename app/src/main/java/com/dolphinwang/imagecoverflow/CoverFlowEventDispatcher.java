@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.RectF;
+
+/**
+ * Calls the listeners of a {@link CoverFlowView} once something they are
+ * told about changed, instead of on every frame. Must be used on the UI
+ * thread.
+ */
+class CoverFlowEventDispatcher<T extends CoverFlowAdapter> {
+
+    private final CoverFlowView<T> mView;
+
+    private CoverFlowView.CoverFlowListener<T> mCoverFlowListener;
+    private CoverFlowView.OnScrollPositionChangeListener mScrollPositionListener;
+
+    /**
+     * Top image last told to mCoverFlowListener
+     */
+    private int mTopPosition = CoverFlowView.NO_POSITION;
+    private final RectF mTopRect = new RectF();
+
+    private float mScrollPosition = Float.NaN;
+
+    /**
+     * invalidationCompleted() was called since covers came to rest
+     */
+    private boolean mSettleDispatched;
+
+    CoverFlowEventDispatcher(CoverFlowView<T> view) {
+        mView = view;
+    }
+
+    void setCoverFlowListener(CoverFlowView.CoverFlowListener<T> listener) {
+        mCoverFlowListener = listener;
+        // The new listener has not been told anything yet
+        reset();
+    }
+
+    CoverFlowView.CoverFlowListener<T> getCoverFlowListener() {
+        return mCoverFlowListener;
+    }
+
+    void setScrollPositionListener(CoverFlowView.OnScrollPositionChangeListener listener) {
+        mScrollPositionListener = listener;
+        mScrollPosition = Float.NaN;
+    }
+
+    /**
+     * Covers rest with position on top at rect.
+     */
+    void dispatchTopImage(int position, RectF rect) {
+        if (position == mTopPosition && rect.equals(mTopRect)) {
+            return;
+        }
+        mTopPosition = position;
+        mTopRect.set(rect);
+
+        if (mCoverFlowListener != null) {
+            mCoverFlowListener.imageOnTop(mView, position, rect.left, rect.top,
+                rect.right, rect.bottom);
+        }
+    }
+
+    /**
+     * A frame was drawn at scrollPosition.
+     *
+     * @param settled covers rest on a position
+     */
+    void dispatchFrame(float scrollPosition, boolean settled) {
+        if (scrollPosition != mScrollPosition) {
+            mScrollPosition = scrollPosition;
+            if (mScrollPositionListener != null) {
+                mScrollPositionListener.onScrollPositionChanged(mView, scrollPosition);
+            }
+        }
+
+        if (!settled) {
+            mSettleDispatched = false;
+        } else if (!mSettleDispatched) {
+            mSettleDispatched = true;
+            if (mCoverFlowListener != null) {
+                mCoverFlowListener.invalidationCompleted();
+            }
+        }
+    }
+
+    /**
+     * Forget what was dispatched, the next frame is reported in full.
+     */
+    void reset() {
+        mTopPosition = CoverFlowView.NO_POSITION;
+        mScrollPosition = Float.NaN;
+        mSettleDispatched = false;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+/**
+ * Geometry and motion of {@link CoverFlowView} in plain Java, numbers in
+ * and numbers out, so it runs on a JVM without a View: height of covers,
+ * pseudo 3d placement, the hit rect of the top cover and fling physics.
+ * <p>
+ * Everything which only depends on the layout of the view is computed once
+ * in {@link #setLayout}, and what also depends on the size of a cover once
+ * per draw index while the cover stays on screen, so placing a cover per
+ * frame takes a few multiply-adds. A cover is drawn scaled by {@link #scale} around a pivot
+ * {@link #pivotY} below its top, then moved by ({@link #translateX},
+ * {@link #translateY}), its reflection by ({@link #translateX},
+ * {@link #reflectionTranslateY}).
+ */
+final class CoverFlowLayout {
+
+    static final float CARD_SCALE = 0.15f;
+
+    /**
+     * Deceleration of a fling, in covers per second squared
+     */
+    static final float FRICTION = 8.0f;
+
+    // Touch
+    private static final float MOVE_POS_MULTIPLE = 3.0f;
+    private static final float MOVE_SPEED_MULTIPLE = 1;
+    private static final float MAX_SPEED = 10.0f;
+
+    // Indices into the rect of getTopRect()
+    static final int LEFT = 0;
+    static final int TOP = 1;
+    static final int RIGHT = 2;
+    static final int BOTTOM = 3;
+
+    // Layout
+    private int mWidth;
+    private int mHalfWidth;
+    private int mPaddingLeft;
+    private int mPaddingRight;
+    private int mChildHeight;
+    private int mChildTranslateY;
+    private int mReflectionTranslateY;
+    private float mReflectHeightFraction;
+    private float mReflectGap;
+
+    /**
+     * Height of the cover in the middle, without reflection and gap
+     */
+    private int mCenterHeight;
+
+    private int mHalfVisibleCount;
+
+    /**
+     * Placement of a cover apart from its offset, for a cover of imageWidth
+     * x imageHeight. Its translateX is leftBase + leftStep * offset left of
+     * the middle, right of it rightBase + rightStep * offset less its
+     * scaled width.
+     */
+    private static final class Slot {
+        int imageWidth;
+        int imageHeight;
+        float centerScale;
+        float leftBase;
+        float leftStep;
+        float rightBase;
+        float rightStep;
+        float pivotY;
+        float adjustY;
+    }
+
+    /**
+     * Direct mapped by draw index into at least twice as many slots as
+     * covers are visible, so visible covers never share a slot
+     */
+    private Slot[] mSlots = new Slot[0];
+    private final Slot mSizeSlot = new Slot();
+
+    // Result of transform()
+    float scale;
+    float translateX;
+    float translateY;
+    float reflectionTranslateY;
+    float pivotY;
+
+    // Current fling
+    private double mFlingStartOffset;
+    private float mFlingSpeed;
+    private float mFlingDuration;
+
+    /**
+     * Height a cover of imageHeight takes with its reflection
+     */
+    static int totalHeight(int imageHeight, float reflectHeightFraction, float reflectGap) {
+        return (int) (imageHeight + imageHeight * reflectHeightFraction + reflectGap);
+    }
+
+    /**
+     * Height of the space covers and reflections are drawn into. Covers are
+     * scaled to availableHeight in match parent mode or if they do not fit,
+     * else drawn at their own height.
+     *
+     * @param heightBounded       false if the parent put no limit on height
+     * @param maxChildTotalHeight largest {@link #totalHeight} of the visible
+     *                            covers, only needed if not matchParent
+     */
+    static int resolveChildHeight(boolean matchParent, boolean heightBounded,
+                                  int availableHeight, int maxChildTotalHeight) {
+        if (matchParent || (heightBounded && availableHeight < maxChildTotalHeight)) {
+            return availableHeight;
+        }
+        return maxChildTotalHeight;
+    }
+
+    void setLayout(int width, int paddingLeft, int paddingRight, int childHeight,
+                   int childTranslateY, int reflectionTranslateY,
+                   float reflectHeightFraction, float reflectGap, int halfVisibleCount) {
+        mWidth = width;
+        mHalfWidth = width >> 1;
+        mPaddingLeft = paddingLeft;
+        mPaddingRight = paddingRight;
+        mChildHeight = childHeight;
+        mChildTranslateY = childTranslateY;
+        mReflectionTranslateY = reflectionTranslateY;
+        mReflectHeightFraction = reflectHeightFraction;
+        mReflectGap = reflectGap;
+        mHalfVisibleCount = halfVisibleCount;
+
+        mCenterHeight = (int) (childHeight - childHeight * reflectHeightFraction
+            - reflectGap);
+
+        final int slotCount = Integer.highestOneBit((halfVisibleCount * 2 + 1) * 2) << 1;
+        if (mSlots.length != slotCount) {
+            mSlots = new Slot[slotCount];
+            for (int i = 0; i < slotCount; ++i) {
+                mSlots[i] = new Slot();
+            }
+        }
+        for (Slot slot : mSlots) {
+            // No image is 0 high
+            slot.imageHeight = 0;
+        }
+    }
+
+    /**
+     * Height of the cover in the middle, without reflection and gap
+     */
+    int getCenterHeight() {
+        return mCenterHeight;
+    }
+
+    /**
+     * Place a cover of imageWidth x imageHeight drawn at index at offset
+     * from the middle. Reuses what was worked out for the cover at index
+     * before, as long as it has the same size.
+     */
+    void transform(int index, int imageWidth, int imageHeight, float offset) {
+        final Slot slot = mSlots[index & (mSlots.length - 1)];
+        if (slot.imageWidth != imageWidth || slot.imageHeight != imageHeight) {
+            prepare(slot, imageWidth, imageHeight);
+        }
+        place(slot, offset);
+    }
+
+    /**
+     * Place a cover of imageWidth x imageHeight at offset from the middle.
+     */
+    void transform(int imageWidth, int imageHeight, float offset) {
+        prepare(mSizeSlot, imageWidth, imageHeight);
+        place(mSizeSlot, offset);
+    }
+
+    private void prepare(Slot slot, int imageWidth, int imageHeight) {
+        final int totalHeight = (int) (imageHeight + imageHeight * mReflectHeightFraction
+            + mReflectGap);
+        final float centerScale = (float) mCenterHeight / imageHeight;
+
+        final int halfCenterWidth = ((int) (imageWidth * centerScale)) >> 1;
+        final int leftSpace = mHalfWidth - mPaddingLeft - halfCenterWidth;
+        final int rightSpace = mHalfWidth - mPaddingRight - halfCenterWidth;
+
+        slot.imageWidth = imageWidth;
+        slot.imageHeight = imageHeight;
+        slot.centerScale = centerScale;
+        slot.leftStep = (float) leftSpace / mHalfVisibleCount;
+        slot.leftBase = slot.leftStep * mHalfVisibleCount + mPaddingLeft;
+        slot.rightStep = (float) rightSpace / mHalfVisibleCount;
+        slot.rightBase = mWidth - slot.rightStep * mHalfVisibleCount - mPaddingRight;
+        slot.pivotY = totalHeight >> 1;
+        // Covers smaller or larger than the middle one stay vertically
+        // centered
+        slot.adjustY = (mChildHeight - totalHeight) >> 1;
+    }
+
+    private void place(Slot slot, float offset) {
+        final float cardScale = 1 - Math.abs(offset) * CARD_SCALE;
+        scale = slot.centerScale * cardScale;
+
+        if (offset <= 0) {
+            translateX = slot.leftBase + slot.leftStep * offset;
+        } else {
+            translateX = slot.rightBase + slot.rightStep * offset
+                - (int) (slot.imageWidth * scale);
+        }
+
+        final float adjustY = scale != 1 ? slot.adjustY : 0;
+
+        pivotY = slot.pivotY;
+        translateY = mChildTranslateY + adjustY;
+        reflectionTranslateY = mReflectionTranslateY * cardScale + adjustY;
+    }
+
+    /**
+     * Rect of a cover of imageWidth x imageHeight in the middle, into
+     * outRect at LEFT, TOP, RIGHT and BOTTOM.
+     */
+    void getTopRect(int imageWidth, int imageHeight, float[] outRect) {
+        final float scale = (float) mCenterHeight / imageHeight;
+        final int widthInView = (int) (imageWidth * scale);
+
+        outRect[LEFT] = mHalfWidth - (widthInView >> 1);
+        outRect[TOP] = mChildTranslateY;
+        outRect[RIGHT] = outRect[LEFT] + widthInView;
+        outRect[BOTTOM] = outRect[TOP] + mCenterHeight;
+    }
+
+    /**
+     * Position of a touch at x in a view width wide, in covers. A drag moves
+     * the offset by the difference of its positions.
+     */
+    static float touchPosition(float x, int width) {
+        float pos = (x / width) * MOVE_POS_MULTIPLE - 5;
+        pos /= 2;
+        return pos;
+    }
+
+    /**
+     * Speed of a release at xVelocity pixels per second in a view width
+     * wide, in covers per second and limited to MAX_SPEED
+     */
+    static double flingSpeed(double xVelocity, int width) {
+        double speed = (xVelocity / width) * MOVE_SPEED_MULTIPLE;
+        if (speed > MAX_SPEED)
+            speed = MAX_SPEED;
+        else if (speed < -MAX_SPEED)
+            speed = -MAX_SPEED;
+        return speed;
+    }
+
+    /**
+     * Start a fling at startOffset with speed in covers per second. The
+     * speed is adjusted so the fling comes to rest exactly on a cover.
+     *
+     * @return offset the fling comes to rest at
+     */
+    double startFling(double startOffset, double speed) {
+        double delta = speed * speed / (FRICTION * 2);
+        if (speed < 0)
+            delta = -delta;
+
+        final double nearest = Math.floor(startOffset + delta + 0.5);
+
+        mFlingStartOffset = startOffset;
+        mFlingSpeed = (float) Math.sqrt(Math.abs(nearest - startOffset) * FRICTION * 2);
+        if (nearest < startOffset)
+            mFlingSpeed = -mFlingSpeed;
+        mFlingDuration = Math.abs(mFlingSpeed / FRICTION);
+
+        return nearest;
+    }
+
+    /**
+     * @return seconds the current fling takes
+     */
+    float getFlingDuration() {
+        return mFlingDuration;
+    }
+
+    /**
+     * @return offset of the current fling elapsed seconds after its start
+     */
+    double getFlingOffset(float elapsed) {
+        if (elapsed > mFlingDuration)
+            elapsed = mFlingDuration;
+
+        float delta = Math.abs(mFlingSpeed) * elapsed - FRICTION * elapsed * elapsed / 2;
+        if (mFlingSpeed < 0)
+            delta = -delta;
+
+        return mFlingStartOffset + delta;
+    }
+}
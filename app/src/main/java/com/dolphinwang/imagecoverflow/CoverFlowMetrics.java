@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+/**
+ * Frame timing of a {@link CoverFlowView}: how long frames took to draw,
+ * how long the adapter took to hand out images, how often reflections were
+ * cached and how long creating them took, and how many frames were dropped
+ * while covers moved. Recording does not allocate, so it can stay on in
+ * production. Set with {@link CoverFlowView#setMetrics(CoverFlowMetrics)}
+ * and read a {@link #snapshot()} from time to time.
+ * <p>
+ * Must be used on the UI thread.
+ */
+public class CoverFlowMetrics {
+
+    /**
+     * Histogram of durations in microseconds. Buckets are exact below 16us
+     * and grow exponentially above, eight per power of two, so percentiles
+     * are at most 12.5% too high.
+     */
+    public static final class Histogram {
+        private static final int LINEAR_BUCKETS = 16;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR_BITS = 4;
+        private static final int BUCKET_COUNT = LINEAR_BUCKETS
+            + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+        private final long[] mCounts = new long[BUCKET_COUNT];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        void record(long micros) {
+            if (micros < 0) {
+                micros = 0;
+            }
+            mCounts[bucketOf(micros)]++;
+            mCount++;
+            mSum += micros;
+            if (micros > mMax) {
+                mMax = micros;
+            }
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount != 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * @param percentile in [0, 100]
+         * @return smallest duration not exceeded by percentile percent of
+         * the recorded durations, 0 if nothing was recorded
+         */
+        public long getPercentile(float percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                mCounts[i] = 0;
+            }
+            mCount = mSum = mMax = 0;
+        }
+
+        void copyTo(Histogram histogram) {
+            System.arraycopy(mCounts, 0, histogram.mCounts, 0, BUCKET_COUNT);
+            histogram.mCount = mCount;
+            histogram.mSum = mSum;
+            histogram.mMax = mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "[count=" + mCount + ",mean=" + getMean() + "us,p50="
+                + getPercentile(50) + "us,p90=" + getPercentile(90) + "us,p99="
+                + getPercentile(99) + "us,max=" + mMax + "us]";
+        }
+
+        private static int bucketOf(long micros) {
+            if (micros < LINEAR_BUCKETS) {
+                return (int) micros;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            final int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR_BUCKETS) {
+                return bucket;
+            }
+            final int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+            final int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+            final long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (1L << exponent) + (sub + 1) * width - 1;
+        }
+    }
+
+    private final Histogram mDrawTimes = new Histogram();
+    private final Histogram mImageTimes = new Histogram();
+    private final Histogram mReflectionCreationTimes = new Histogram();
+
+    private long mFrameCount;
+    private long mMovingFrameCount;
+    private long mDroppedFrameCount;
+    private long mReflectionHitCount;
+    private long mReflectionMissCount;
+    private long mCulledFrameCount;
+    private long mCulledPixelCount;
+    private long mLastCulledPixels;
+
+    /**
+     * Time of the previous frame covers were moved for, 0 if the previous
+     * frame was not asked for
+     */
+    private long mLastMovingFrameNanos;
+
+    /**
+     * Durations of {@link CoverFlowView#onDraw}
+     */
+    public Histogram getDrawTimes() {
+        return mDrawTimes;
+    }
+
+    /**
+     * Durations of {@link CoverFlowAdapter#getImage} while drawing
+     */
+    public Histogram getImageTimes() {
+        return mImageTimes;
+    }
+
+    /**
+     * Durations of creating a reflection, or loading it from the
+     * {@link CoverStore}, on the worker thread
+     */
+    public Histogram getReflectionCreationTimes() {
+        return mReflectionCreationTimes;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Frames drawn for a drag, fling or selection scroll which moved covers
+     */
+    public long getMovingFrameCount() {
+        return mMovingFrameCount;
+    }
+
+    /**
+     * Display frames without a new frame during a drag, fling or selection
+     * scroll. Only counted between frames which were asked for, a finger
+     * resting during a drag drops nothing.
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    public long getReflectionHitCount() {
+        return mReflectionHitCount;
+    }
+
+    /**
+     * Reflections drawn missing because they were not created yet, or in
+     * {@link CoverFlowView.CoverFlowReflectionMode#SHADER} mode, reflection
+     * shaders created while drawing
+     */
+    public long getReflectionMissCount() {
+        return mReflectionMissCount;
+    }
+
+    /**
+     * Frames drawn with occlusion culling, see
+     * {@link CoverFlowView#setOcclusionCullingEnabled(boolean)}
+     */
+    public long getCulledFrameCount() {
+        return mCulledFrameCount;
+    }
+
+    /**
+     * Cover pixels not drawn because nearer covers hide them, in all
+     * culled frames
+     */
+    public long getCulledPixelCount() {
+        return mCulledPixelCount;
+    }
+
+    /**
+     * Cover pixels not drawn in the last culled frame
+     */
+    public long getLastCulledPixels() {
+        return mLastCulledPixels;
+    }
+
+    /**
+     * @return a copy which does not change any more
+     */
+    public CoverFlowMetrics snapshot() {
+        final CoverFlowMetrics snapshot = new CoverFlowMetrics();
+        mDrawTimes.copyTo(snapshot.mDrawTimes);
+        mImageTimes.copyTo(snapshot.mImageTimes);
+        mReflectionCreationTimes.copyTo(snapshot.mReflectionCreationTimes);
+        snapshot.mFrameCount = mFrameCount;
+        snapshot.mMovingFrameCount = mMovingFrameCount;
+        snapshot.mDroppedFrameCount = mDroppedFrameCount;
+        snapshot.mReflectionHitCount = mReflectionHitCount;
+        snapshot.mReflectionMissCount = mReflectionMissCount;
+        snapshot.mCulledFrameCount = mCulledFrameCount;
+        snapshot.mCulledPixelCount = mCulledPixelCount;
+        snapshot.mLastCulledPixels = mLastCulledPixels;
+        return snapshot;
+    }
+
+    public void reset() {
+        mDrawTimes.reset();
+        mImageTimes.reset();
+        mReflectionCreationTimes.reset();
+        mFrameCount = mMovingFrameCount = mDroppedFrameCount = 0;
+        mReflectionHitCount = mReflectionMissCount = 0;
+        mCulledFrameCount = mCulledPixelCount = mLastCulledPixels = 0;
+        mLastMovingFrameNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CoverFlowMetrics[frames=" + mFrameCount + ",movingFrames="
+            + mMovingFrameCount + ",droppedFrames=" + mDroppedFrameCount
+            + ",draw=" + mDrawTimes + ",getImage=" + mImageTimes
+            + ",reflectionHits=" + mReflectionHitCount + ",reflectionMisses="
+            + mReflectionMissCount + ",reflectionCreation=" + mReflectionCreationTimes
+            + ",culledFrames=" + mCulledFrameCount + ",culledPixels="
+            + mCulledPixelCount + "]";
+    }
+
+    /**
+     * @param startNanos     {@link System#nanoTime()} when drawing started
+     * @param endNanos       {@link System#nanoTime()} when drawing ended
+     * @param frameTimeNanos {@link System#nanoTime()} of the display frame
+     *                       covers were moved for, 0 if they were not moved.
+     *                       While covers keep moving, frames should be
+     *                       frameIntervalNanos apart.
+     */
+    void recordFrame(long startNanos, long endNanos, long frameTimeNanos,
+                     long frameIntervalNanos) {
+        mFrameCount++;
+        mDrawTimes.record((endNanos - startNanos) / 1000);
+
+        if (frameTimeNanos == 0) {
+            mLastMovingFrameNanos = 0;
+            return;
+        }
+
+        mMovingFrameCount++;
+        if (mLastMovingFrameNanos != 0 && frameIntervalNanos > 0) {
+            // A frame late by more than half an interval missed its vsync
+            final long missed = (frameTimeNanos - mLastMovingFrameNanos
+                + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+            if (missed > 0) {
+                mDroppedFrameCount += missed;
+            }
+        }
+        mLastMovingFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * No frame was asked for, the next frame is not late whenever it comes
+     */
+    void recordIdle() {
+        mLastMovingFrameNanos = 0;
+    }
+
+    void recordGetImage(long nanos) {
+        mImageTimes.record(nanos / 1000);
+    }
+
+    void recordReflection(boolean hit) {
+        if (hit) {
+            mReflectionHitCount++;
+        } else {
+            mReflectionMissCount++;
+        }
+    }
+
+    void recordCulledPixels(long pixels) {
+        mCulledFrameCount++;
+        mCulledPixelCount += pixels;
+        mLastCulledPixels = pixels;
+    }
+
+    void recordReflectionCreated(long nanos) {
+        mReflectionCreationTimes.record(nanos / 1000);
+    }
+}
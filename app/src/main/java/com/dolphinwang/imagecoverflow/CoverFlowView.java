@@ -15,29 +15,34 @@
  */
 package com.dolphinwang.imagecoverflow;
 
-import android.app.ActivityManager;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.database.DataSetObserver;
 import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.ComposeShader;
+import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.support.v4.graphics.BitmapCompat;
-import android.support.v4.util.LruCache;
+import android.graphics.Shader;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
+import android.view.WindowManager;
 import android.view.animation.AccelerateDecelerateInterpolator;
-import android.view.animation.AnimationUtils;
-import android.widget.Scroller;
+import android.view.animation.Interpolator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * @author dolphinWang
@@ -54,8 +59,19 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         MATCH_PARENT, WRAP_CONTENT
     }
 
+    /**
+     * CACHED_BITMAP keeps a flipped and faded copy of every cover in memory,
+     * SHADER draws the reflection straight from the cover and costs no extra
+     * bitmap memory.
+     */
+    public enum CoverFlowReflectionMode {
+        CACHED_BITMAP, SHADER
+    }
+
     private static final int DURATION = 200;
 
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
     protected final int INVALID_POSITION = -1;
 
     public static final int MIN_VISIBLE_IMAGES = 3;
@@ -75,17 +91,52 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
     private final int ALPHA_DATUM = 76;
     private int STANDARD_ALPHA;
     // 基础缩放值
-    private static final float CARD_SCALE = 0.15f;
-    private static float MOVE_POS_MULTIPLE = 3.0f;
     private static final int TOUCH_MINIMUM_MOVE = 5;
-    private static final float MOVE_SPEED_MULTIPLE = 1;
-    private static final float MAX_SPEED = 10.0f;
-    private static final float FRICTION = 8.0f;
 
     private static final int LONG_CLICK_DELAY = ViewConfiguration
         .getLongPressTimeout();
 
-    private RecycleBin mRecycler;
+    private CoverCache mCoverCache;
+    private final CoverCache.Stats mCoverCacheStats = new CoverCache.Stats();
+    /**
+     * Eviction listener and memory pressure of this view, they move along
+     * with it to another cache
+     */
+    private final CoverCache.Client mCoverCacheClient = new CoverCache.Client();
+
+    private CoverFlowMetrics mMetrics;
+
+    /**
+     * Interval between display frames, to count frames dropped while
+     * covers move
+     */
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    /**
+     * Time covers were last moved for the next frame, by the frame time of
+     * an animation or the handling of a drag, 0 if they were not moved
+     * since the last frame. Dropped frames are only counted between frames
+     * which were asked for.
+     */
+    private long mMovedFrameNanos;
+    /**
+     * True if mCoverCache was created by this view rather than handed over
+     */
+    private boolean mOwnsCoverCache;
+    /**
+     * This view is counted by mCoverCache, while attached to a window
+     */
+    private boolean mCoverCacheAttached;
+
+    /**
+     * Cached bitmaps drawn in the last frame, pinned in mCoverCache, and the
+     * ones drawn in the current frame
+     */
+    private ArrayList<Bitmap> mPinnedCovers = new ArrayList<Bitmap>();
+    private ArrayList<Bitmap> mFrameCovers = new ArrayList<Bitmap>();
+    private ImageLoader mImageLoader;
+    private CoverGenerator mCoverGenerator;
+    private CoverStore mCoverStore;
+    private CacheMemoryManager mMemoryManager;
     protected int mCoverFlowCenter;
     private T mAdapter;
 
@@ -101,31 +152,148 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
 
     protected CoverFlowLayoutMode mLayoutMode;
 
+    protected CoverFlowReflectionMode mReflectionMode;
+
     private Rect mCoverFlowPadding;
 
     private PaintFlagsDrawFilter mDrawFilter;
 
+    private final CoverFlowLayout mLayout = new CoverFlowLayout();
+    private final float[] mTopRect = new float[4];
     private Matrix mChildTransformer;
     private Matrix mReflectionTransformer;
 
     private Paint mDrawChildPaint;
 
+    /**
+     * Draws reflections in SHADER mode, with the shader of the cover
+     */
+    private Paint mReflectionPaint;
+
     private RectF mTouchRect;
 
+    /**
+     * Bitmap pixels to screen pixels ratio of the child being drawn, set by
+     * makeChildTransformer
+     */
+    private float mChildScale;
+
+    private boolean mLevelOfDetailEnabled;
+
+    private boolean mOcclusionCullingEnabled;
+
+    /**
+     * What is drawn for a cover and where, so all covers of a frame can be
+     * known before the first is drawn
+     */
+    private static class ChildDraw {
+        Bitmap child;
+        /**
+         * child or its level of detail
+         */
+        Bitmap cover;
+        Bitmap reflection;
+        int alpha;
+        final Matrix childMatrix = new Matrix();
+        final Matrix reflectionMatrix = new Matrix();
+        /**
+         * Rect the cover hides completely, empty if it does not
+         */
+        final RectF occluder = new RectF();
+
+        void clear() {
+            child = cover = reflection = null;
+        }
+    }
+
+    /**
+     * Shader of a reflection in SHADER mode: the bottom of child upside
+     * down, faded out by a gradient. Kept while the cover is on screen, so
+     * a frame creates shaders only for covers which just came into view.
+     */
+    private static class ReflectionShader {
+        Bitmap child;
+        int reflectionHeight;
+        Shader shader;
+        long lastUse;
+    }
+
+    private ReflectionShader[] mReflectionShaders = new ReflectionShader[0];
+    private long mReflectionShaderUses;
+    /**
+     * Flips the cover of a new reflection shader, copied by the shader
+     */
+    private final Matrix mReflectionFlip = new Matrix();
+    /**
+     * Gradient of the last reflection shader created, shared by all of the
+     * same height
+     */
+    private Shader mReflectionMask;
+    private int mReflectionMaskHeight;
+
+    private final ChildDraw mChildDraw = new ChildDraw();
+    /**
+     * Covers of a frame in drawing order, back to front
+     */
+    private ChildDraw[] mChildDraws = new ChildDraw[0];
+    private final RectF mCullBounds = new RectF();
+    private final RectF mCullVisible = new RectF();
+
+    private boolean mIdleLayerEnabled;
+    /**
+     * The hardware layer of resting covers is set, by us and not by the app
+     */
+    private boolean mIdleLayer;
+
+    private final Runnable mIdleLayerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            enterIdleLayer();
+        }
+    };
+
     private int mWidth;
     private boolean mTouchMoved;
+    /**
+     * Covers follow the finger, mTouchMoved stays set until the next touch
+     */
+    private boolean mDragging;
     private float mTouchStartPos;
     private float mTouchStartX;
     private float mTouchStartY;
 
-    private float mOffset;
+    /**
+     * Double, so fractions of a cover survive at large positions
+     */
+    private double mOffset;
+
+    private double mStartOffset;
+
+    private static final int ANIMATION_NONE = 0;
+    private static final int ANIMATION_FLING = 1;
+    private static final int ANIMATION_SCROLL = 2;
+
+    /**
+     * Running animation, a fling or a scroll to a selected position, both
+     * driven by mFrameAnimator
+     */
+    private int mAnimation = ANIMATION_NONE;
+    private long mAnimationStartNanos;
+
+    // Scroll of setSelection()
+    private double mScrollFromOffset;
+    private double mScrollToOffset;
+    private long mScrollDurationNanos;
+    private final Interpolator mScrollInterpolator = new AccelerateDecelerateInterpolator();
 
-    private float mStartOffset;
-    private long mStartTime;
+    private final FrameAnimator mFrameAnimator = new FrameAnimator(
+        new FrameAnimator.Callback() {
+            @Override
+            public boolean onAnimationFrame(long frameTimeNanos) {
+                return updateAnimation(frameTimeNanos);
+            }
+        });
 
-    private float mStartSpeed;
-    private float mDuration;
-    private Runnable mAnimationRunnable;
     private VelocityTracker mVelocity;
 
     private int mChildHeight;
@@ -137,23 +305,87 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
 
     private boolean topImageClickEnable = true;
 
-    private CoverFlowListener<T> mCoverFlowListener;
+    private final CoverFlowEventDispatcher<T> mEventDispatcher =
+        new CoverFlowEventDispatcher<T>(this);
 
     private TopImageLongClickListener mLongClickListener;
+
     private LongClickRunnable mLongClickRunnable;
     private boolean mLongClickPosted;
     private boolean mLongClickTriggled;
 
     private int mTopImageIndex;
+    /**
+     * mTouchRect has to be computed again for mTopImageIndex
+     */
+    private boolean mTopRectDirty;
 
-    private Scroller mScroller;
+    /**
+     * Range of draw-indexes last handed to prefetch
+     */
+    private int mPrefetchStart;
+    private int mPrefetchEnd;
 
     /**
-     * Record origin width and height of images
+     * Record origin width and height of images. Direct mapped by draw index,
+     * not by position in adapter, into at least twice as many slots as
+     * covers are visible. Visible covers have consecutive draw indices, so
+     * they never share a slot, also where the data set wraps around, and
+     * drawing allocates nothing.
      */
-    private SparseArray<int[]> mImageRecorder;
+    private int[] mRecordedPositions = {INVALID_POSITION};
+    private int[] mRecordedWidths = new int[1];
+    private int[] mRecordedHeights = new int[1];
+    private final int[] mImageSizeHint = new int[2];
+
+    private ImageLoader.Callback mImageLoaderCallback = new ImageLoader.Callback() {
+
+        @Override
+        public void onImageLoaded(int position, Bitmap image) {
+            // Size of the placeholder was recorded so far
+            forgetImageSize(position);
+            prefetchReflection(position, image);
+
+            // Only redraw if the placeholder is on screen
+            if (isPositionVisible(position)) {
+                invalidate();
+            }
+        }
+    };
+
+    private CacheMemoryManager.Callback mMemoryCallback = new CacheMemoryManager.Callback() {
+
+        @Override
+        public void onTrimFactorChanged(float trimFactor) {
+            mCoverCache.setTrimFactor(mCoverCacheClient, trimFactor);
+            if (mImageLoader != null) {
+                mImageLoader.setCacheSize(mMemoryManager.getImageCacheSize());
+            }
+            if (trimFactor < 1) {
+                leaveIdleLayer();
+            } else if (mIdleLayerEnabled) {
+                invalidate();
+            }
+        }
+    };
+
+    private CoverGenerator.Callback mCoverCallback = new CoverGenerator.Callback() {
+
+        @Override
+        public void onCoverCreated(long itemId, int kind, Bitmap src, Bitmap result,
+                                   long createNanos) {
+            mCoverCache.put(itemId, kind, result, mCoverCacheStats);
+            if (mMetrics != null && kind == CoverGenerator.KIND_REFLECTION) {
+                mMetrics.recordReflectionCreated(createNanos);
+            }
+
+            if (isImageVisible(src)) {
+                invalidate();
+            }
+        }
+    };
 
-    private DataSetObserver mDataSetObserver = new DataSetObserver() {
+    private CoverFlowAdapter.ItemObserver mDataSetObserver = new CoverFlowAdapter.ItemObserver() {
 
         @Override
         public void onChanged() {
@@ -161,23 +393,28 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
 
             // If current index of top image is bigger than new total count,
             // locate it to new mid.
-            if (mTopImageIndex % mItemCount > newItemCount - 1) {
+            if (mItemCount <= 0) {
+                mOffset = -mHalfVisibleImageCount;
+            } else if (mTopImageIndex % mItemCount > newItemCount - 1) {
                 mOffset = newItemCount - mHalfVisibleImageCount - 1;
             } else {
                 // If current index of top image is smaller than new total count,
                 // change mOffset to current state in first loop
-                mOffset += mHalfVisibleImageCount;
-                while (mOffset < 0 || mOffset >= mItemCount) {
-                    if (mOffset < 0) {
-                        mOffset += mItemCount;
-                    } else if (mOffset >= mItemCount) {
-                        mOffset -= mItemCount;
-                    }
-                }
-                mOffset -= mHalfVisibleImageCount;
+                mOffset = wrapOffset(mOffset);
             }
 
             mItemCount = newItemCount;
+            if (mImageLoader != null) {
+                mImageLoader.clear();
+            }
+            // Without stable ids reflections are keyed by position, which
+            // may point to another image now
+            if (!mAdapter.hasStableIds()) {
+                mCoverCache.clear();
+                mCoverGenerator.clear();
+            } else {
+                mCoverGenerator.clearFailures();
+            }
             resetCoverFlow();
 
             requestLayout();
@@ -185,6 +422,23 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             super.onChanged();
         }
 
+        @Override
+        public void onItemChanged(int position) {
+            final long itemId = mAdapter.getItemId(position);
+            for (int kind = 0; kind <= CoverGenerator.LOD_LEVELS; kind++) {
+                mCoverCache.remove(itemId, kind);
+            }
+            mCoverGenerator.invalidate(itemId);
+            if (mImageLoader != null) {
+                mImageLoader.invalidate(position);
+            }
+            forgetImageSize(position);
+
+            mDataSetChanged = true;
+            requestLayout();
+            invalidate();
+        }
+
         @Override
         public void onInvalidated() {
             super.onInvalidated();
@@ -235,6 +489,10 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             R.styleable.ImageCoverFlowView_coverflowLayoutMode,
             CoverFlowLayoutMode.WRAP_CONTENT.ordinal())];
 
+        mReflectionMode = CoverFlowReflectionMode.values()[a.getInt(
+            R.styleable.ImageCoverFlowView_coverflowReflectionMode,
+            CoverFlowReflectionMode.CACHED_BITMAP.ordinal())];
+
         a.recycle();
     }
 
@@ -247,19 +505,22 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
 
         mTouchRect = new RectF();
 
-        mImageRecorder = new SparseArray<int[]>();
-
         mDrawChildPaint = new Paint();
         mDrawChildPaint.setAntiAlias(true);
         mDrawChildPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
 
+        mReflectionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
         mCoverFlowPadding = new Rect();
 
         mDrawFilter = new PaintFlagsDrawFilter(0, Paint.ANTI_ALIAS_FLAG
             | Paint.FILTER_BITMAP_FLAG);
 
-        mScroller = new Scroller(getContext(),
-            new AccelerateDecelerateInterpolator());
+        mMemoryManager = new CacheMemoryManager(getContext(), mMemoryCallback);
+        mCoverCache = new CoverCache(getContext());
+        mOwnsCoverCache = true;
+        mCoverGenerator = new CoverGenerator(mCoverCallback,
+            mCoverCache.getBitmapPool());
     }
 
     /**
@@ -273,6 +534,13 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             mAdapter.unregisterDataSetObserver(mDataSetObserver);
         }
 
+        if (mImageLoader != null) {
+            mImageLoader.release();
+            mImageLoader = null;
+        }
+        mCoverGenerator.clear();
+        clearReflectionShaders();
+
         mAdapter = adapter;
 
         if (mAdapter != null) {
@@ -280,10 +548,14 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
 
             mItemCount = mAdapter.getCount();
 
-            if (mRecycler != null) {
-                mRecycler.clear();
-            } else {
-                mRecycler = new RecycleBin();
+            if (!mAdapter.hasStableIds()) {
+                mCoverCache.clear();
+            }
+
+            if (mAdapter instanceof AsyncCoverFlowAdapter) {
+                mImageLoader = new ImageLoader((AsyncCoverFlowAdapter) mAdapter,
+                    mImageLoaderCallback, mMemoryManager.getImageCacheSize());
+                mImageLoader.setMinCount(mVisibleChildCount);
             }
         }
 
@@ -294,6 +566,8 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
                 + ", mHalfVisibleImageCount=" + mHalfVisibleImageCount);
         }
 
+        updateCoverStore();
+
         resetCoverFlow();
 
         requestLayout();
@@ -303,8 +577,24 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         return mAdapter;
     }
 
+    /**
+     * If covers already rest, l is told about the top image and the
+     * completed invalidation on the next frame.
+     */
     public void setCoverFlowListener(CoverFlowListener<T> l) {
-        mCoverFlowListener = l;
+        mEventDispatcher.setCoverFlowListener(l);
+        // imageOnTop() only dispatches if the top image or its rect changed
+        mTopRectDirty = true;
+        invalidate();
+    }
+
+    /**
+     * Follow scrolling without the cost of {@link CoverFlowListener}, the
+     * listener is called once per frame in which the position changed.
+     */
+    public void setOnScrollPositionChangeListener(OnScrollPositionChangeListener l) {
+        mEventDispatcher.setScrollPositionListener(l);
+        invalidate();
     }
 
     private void resetCoverFlow() {
@@ -331,12 +621,64 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             mLayoutMode = CoverFlowLayoutMode.WRAP_CONTENT;
         }
 
-        mImageRecorder.clear();
+        if (mReflectionMode == null) {
+            mReflectionMode = CoverFlowReflectionMode.CACHED_BITMAP;
+        }
+
+        final int slotCount = Integer.highestOneBit((mHalfVisibleImageCount * 2 + 1) * 2) << 1;
+        if (mRecordedPositions.length != slotCount) {
+            mRecordedPositions = new int[slotCount];
+            mRecordedWidths = new int[slotCount];
+            mRecordedHeights = new int[slotCount];
+        }
+        Arrays.fill(mRecordedPositions, INVALID_POSITION);
 
         mTopImageIndex = INVALID_POSITION;
+        mEventDispatcher.reset();
+        mPrefetchStart = mPrefetchEnd = Integer.MIN_VALUE;
         mDataSetChanged = true;
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        mMemoryManager.register();
+        if (!mCoverCacheAttached) {
+            mCoverCache.attach(mCoverCacheClient);
+            mCoverCacheAttached = true;
+        }
+
+        final WindowManager wm = (WindowManager) getContext()
+            .getSystemService(Context.WINDOW_SERVICE);
+        final float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+        mFrameIntervalNanos = refreshRate > 0 ? (long) (1000000000L / refreshRate)
+            : DEFAULT_FRAME_INTERVAL_NANOS;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        endAnimation();
+        leaveIdleLayer();
+        mMemoryManager.unregister();
+
+        if (mImageLoader != null) {
+            mImageLoader.release();
+        }
+        mCoverGenerator.release();
+        clearReflectionShaders();
+        unpinCovers();
+        if (mCoverCacheAttached) {
+            mCoverCache.detach(mCoverCacheClient);
+            mCoverCacheAttached = false;
+        }
+        if (mOwnsCoverCache) {
+            mCoverCache.getBitmapPool().clear();
+        }
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
@@ -375,6 +717,7 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         int mid = (int) Math.floor(mOffset + 0.5);
         int leftChild = totalVisibleCount >> 1;
         final int startPos = getActuallyPosition(mid - leftChild);
+        final int startIndex = mid - leftChild;
 
         if (BuildConfig.DEBUG) {
             Log.d(TAG, "onMeasure: startPos=" + startPos
@@ -383,51 +726,28 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
                 + ", mOffset=" + mOffset);
         }
 
-        for (int i = startPos; i < totalVisibleCount + startPos; ++i) {
-            Bitmap child = mAdapter.getImage(i);
-            final int childHeight = child.getHeight();
-            final int childTotalHeight = (int) (childHeight + childHeight
-                * reflectHeightFraction + reflectGap);
+        // Heights of covers only matter if the view wraps them
+        if (mLayoutMode == CoverFlowLayoutMode.WRAP_CONTENT) {
+            for (int i = startIndex; i < totalVisibleCount + startIndex; ++i) {
+                final int childHeight = mRecordedHeights[recordImageSize(i, null)];
+                final int childTotalHeight = CoverFlowLayout.totalHeight(childHeight,
+                    reflectHeightFraction, reflectGap);
 
-            maxChildTotalHeight = (maxChildTotalHeight < childTotalHeight) ? childTotalHeight
-                : maxChildTotalHeight;
+                maxChildTotalHeight = (maxChildTotalHeight < childTotalHeight) ? childTotalHeight
+                    : maxChildTotalHeight;
+            }
         }
 
-        if (heightMode == MeasureSpec.EXACTLY
-            || heightMode == MeasureSpec.AT_MOST) {
-            // if height which parent provided is less than child need, scale
-            // child height to parent provide
-            if (availableHeight < maxChildTotalHeight) {
-                mChildHeight = availableHeight;
-            } else {
-                // if larger than, depends on layout mode
-                // if layout mode is match_parent, scale child height to parent
-                // provide
-                if (mLayoutMode == CoverFlowLayoutMode.MATCH_PARENT) {
-                    mChildHeight = availableHeight;
-                    // if layout mode is wrap_content, keep child's original
-                    // height
-                } else if (mLayoutMode == CoverFlowLayoutMode.WRAP_CONTENT) {
-                    mChildHeight = maxChildTotalHeight;
-
-                    // adjust parent's height
-                    if (heightMode == MeasureSpec.AT_MOST) {
-                        heightSize = mChildHeight + mCoverFlowPadding.top
-                            + mCoverFlowPadding.bottom;
-                    }
-                }
-            }
-        } else {
-            // height mode is unspecified
-            if (mLayoutMode == CoverFlowLayoutMode.MATCH_PARENT) {
-                mChildHeight = availableHeight;
-            } else if (mLayoutMode == CoverFlowLayoutMode.WRAP_CONTENT) {
-                mChildHeight = maxChildTotalHeight;
-
-                // adjust parent's height
-                heightSize = mChildHeight + mCoverFlowPadding.top
-                    + mCoverFlowPadding.bottom;
-            }
+        final boolean matchParent = mLayoutMode == CoverFlowLayoutMode.MATCH_PARENT;
+        mChildHeight = CoverFlowLayout.resolveChildHeight(matchParent,
+            heightMode != MeasureSpec.UNSPECIFIED, availableHeight, maxChildTotalHeight);
+
+        // if covers keep their own height, adjust parent's height unless it
+        // is exact
+        if (!matchParent && mChildHeight == maxChildTotalHeight
+            && heightMode != MeasureSpec.EXACTLY) {
+            heightSize = mChildHeight + mCoverFlowPadding.top
+                + mCoverFlowPadding.bottom;
         }
 
         // Adjust movement in y-axis according to gravity
@@ -442,9 +762,39 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         mReflectionTranslateY = (int) (mChildTranslateY + mChildHeight - mChildHeight
             * reflectHeightFraction);
 
+        mWidth = widthSize;
+        updateLayout();
+
+        if (mAdapter instanceof DecodingCoverFlowAdapter) {
+            final int coverHeight = mLayout.getCenterHeight();
+            if (((DecodingCoverFlowAdapter) mAdapter).setTargetHeight(coverHeight)
+                && mImageLoader != null) {
+                // Covers grew, or images prefetched before the first
+                // measure were decoded in full size. Decode them again.
+                mImageLoader.clear();
+            }
+        }
+
         setMeasuredDimension(widthSize, heightSize);
         mVisibleChildCount = totalVisibleCount;
-        mWidth = widthSize;
+        if (mImageLoader != null) {
+            // Images on screen survive any memory pressure
+            mImageLoader.setMinCount(totalVisibleCount);
+        }
+
+        if (mChildDraws.length < totalVisibleCount) {
+            mChildDraws = new ChildDraw[totalVisibleCount];
+            for (int i = 0; i < totalVisibleCount; ++i) {
+                mChildDraws[i] = new ChildDraw();
+            }
+        }
+        // Room for the covers on screen and the ones coming into view
+        if (mReflectionShaders.length < totalVisibleCount * 2) {
+            mReflectionShaders = new ReflectionShader[totalVisibleCount * 2];
+            for (int i = 0; i < mReflectionShaders.length; ++i) {
+                mReflectionShaders[i] = new ReflectionShader();
+            }
+        }
     }
 
     /**
@@ -464,9 +814,11 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             return;
         }
 
+        final long frameStart = mMetrics != null ? System.nanoTime() : 0;
+
         canvas.setDrawFilter(mDrawFilter);
 
-        final float offset = mOffset;
+        final double offset = mOffset;
         int i = 0;
         int mid = (int) Math.floor(offset + 0.5);
 
@@ -474,201 +826,409 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             : mVisibleChildCount >> 1;
         int leftChild = mVisibleChildCount >> 1;
 
-        // draw the left children
         int startPos = mid - leftChild;
-        for (i = startPos; i < mid; ++i) {
-            drawChild(canvas, mid, i, i - offset);
-        }
-
-        // draw the right children
         int endPos = mid + rightChild;
-        for (i = endPos; i >= mid; --i) {
-            drawChild(canvas, mid, i, i - offset);
+        if (mOcclusionCullingEnabled) {
+            drawChildrenCulled(canvas, mid, startPos, endPos, offset);
+        } else {
+            // draw the left children
+            for (i = startPos; i < mid; ++i) {
+                drawChild(canvas, mid, i, (float) (i - offset));
+            }
+
+            // draw the right children
+            for (i = endPos; i >= mid; --i) {
+                drawChild(canvas, mid, i, (float) (i - offset));
+            }
         }
 
-        if ((offset - (int) offset) == 0.0f) {
-            imageOnTop(getActuallyPosition((int) offset));
+        // Rest on a cover, nothing moves it
+        final boolean settled = offset == Math.floor(offset)
+            && mAnimation == ANIMATION_NONE && !mDragging;
+        if (settled) {
+            imageOnTop((int) offset);
         }
 
+        updatePinnedCovers();
+
         super.onDraw(canvas);
 
-        mCoverFlowListener.invalidationCompleted();
+        if (mMetrics != null) {
+            mMetrics.recordFrame(frameStart, System.nanoTime(), mMovedFrameNanos,
+                mFrameIntervalNanos);
+        }
+        mMovedFrameNanos = 0;
+
+        mEventDispatcher.dispatchFrame((float) (wrapOffset(offset) + mHalfVisibleImageCount),
+            settled);
+
+        if (settled && mIdleLayerEnabled && !mIdleLayer) {
+            // Layer type can not change while drawing
+            removeCallbacks(mIdleLayerRunnable);
+            post(mIdleLayerRunnable);
+        }
     }
 
     protected final void drawChild(Canvas canvas, int mid, int position, float offset) {
+        prepareChild(mChildDraw, mid, position, offset);
+        if (canvas != null) {
+            drawChild(canvas, mChildDraw, null);
+        }
+        mChildDraw.clear();
+    }
+
+    /**
+     * Obtain what is drawn for position and where, into draw.
+     */
+    private void prepareChild(ChildDraw draw, int mid, int position, float offset) {
 
         int actuallyPosition = getActuallyPosition(position);
 
-        final Bitmap child = mAdapter.getImage(actuallyPosition);
-        final Bitmap reflection = obtainReflection(child);
+        final long imageStart = mMetrics != null ? System.nanoTime() : 0;
+        final Bitmap loaded = mImageLoader != null
+            ? mImageLoader.getImage(actuallyPosition) : null;
+        final Bitmap child = loaded != null ? loaded : mAdapter.getImage(actuallyPosition);
+        if (mMetrics != null) {
+            mMetrics.recordGetImage(System.nanoTime() - imageStart);
+        }
+        // Nothing is derived from placeholders
+        final boolean derivable = mImageLoader == null || loaded != null;
+
+        final Bitmap reflection = derivable
+            && mReflectionMode == CoverFlowReflectionMode.CACHED_BITMAP
+            ? obtainReflection(actuallyPosition, child) : null;
+
+        recordImageSize(position, child);
+
+        if (child == null || child.isRecycled()) {
+            draw.clear();
+            return;
+        }
+
+        makeChildTransformer(child, mid, position, offset);
+        draw.child = child;
+        draw.cover = derivable ? obtainLevelOfDetail(actuallyPosition, child) : child;
+        draw.reflection = reflection;
+        draw.alpha = mDrawChildPaint.getAlpha();
+        draw.childMatrix.set(mChildTransformer);
+        draw.reflectionMatrix.set(mReflectionTransformer);
+    }
+
+    /**
+     * @param visible part of the cover which is not hidden by nearer
+     *                covers, null to draw all of it
+     */
+    private void drawChild(Canvas canvas, ChildDraw draw, RectF visible) {
+        if (draw.child == null) {
+            return;
+        }
 
-        int[] wAndh = mImageRecorder.get(actuallyPosition);
-        if (wAndh == null) {
-            wAndh = new int[]{child.getWidth(), child.getHeight()};
-            mImageRecorder.put(actuallyPosition, wAndh);
+        mDrawChildPaint.setAlpha(draw.alpha);
+
+        if (visible != null && visible.isEmpty()) {
+            // Hidden, only the reflection is seen
+        } else if (visible != null) {
+            final int saveCount = canvas.save();
+            canvas.clipRect(visible);
+            canvas.drawBitmap(draw.cover, draw.childMatrix, mDrawChildPaint);
+            canvas.restoreToCount(saveCount);
         } else {
-            wAndh[0] = child.getWidth();
-            wAndh[1] = child.getHeight();
+            canvas.drawBitmap(draw.cover, draw.childMatrix, mDrawChildPaint);
         }
 
-        if (child != null && !child.isRecycled() && canvas != null) {
-            makeChildTransformer(child, mid, position, offset);
-            canvas.drawBitmap(child, mChildTransformer, mDrawChildPaint);
-            if (reflection != null) {
+        if (mReflectionMode == CoverFlowReflectionMode.SHADER) {
+            drawReflection(canvas, draw.child, draw.reflectionMatrix, draw.alpha);
+        } else if (draw.reflection != null) {
 
-                canvas.drawBitmap(reflection, mReflectionTransformer,
-                    mDrawChildPaint);
-            }
+            canvas.drawBitmap(draw.reflection, draw.reflectionMatrix,
+                mDrawChildPaint);
         }
     }
 
     /**
-     * <ul>
-     * <li>对bitmap进行伪3d变换</li>
-     * </ul>
-     *
-     * @param child
-     * @param position
-     * @param offset
+     * Prepare all visible covers back to front, then draw each cover
+     * clipped to the part nearer opaque covers leave visible. Covers move
+     * sideways, so the visible part stays a rect and the clip is cheap.
      */
-    private void makeChildTransformer(Bitmap child, int mid, int position, float offset) {
-        mChildTransformer.reset();
-        mReflectionTransformer.reset();
-
-        //this scale make sure that each image will be smaller than the previous one
-//        float scale = 0;
-//        if (position != mid) {
-//            scale = 1 - Math.abs(offset) * 0.25f;
-//        } else {
-//            scale = 1 - Math.abs(offset) * CARD_SCALE;
-//        }
-        float scale = 1 - Math.abs(offset) * CARD_SCALE;
-        // 延x轴移动的距离应该根据center图片决定
-        float translateX = 0;
-
-        final int originalChildHeight = (int) (mChildHeight - mChildHeight
-            * reflectHeightFraction - reflectGap);
-        final int childTotalHeight = (int) (child.getHeight()
-            + child.getHeight() * reflectHeightFraction + reflectGap);
-
-        final float originalChildHeightScale = (float) originalChildHeight
-            / child.getHeight();
-        final float childHeightScale = originalChildHeightScale * scale;
-        final int childWidth = (int) (child.getWidth() * childHeightScale);
-        final int centerChildWidth = (int) (child.getWidth() * originalChildHeightScale);
-        int leftSpace = ((mWidth >> 1) - mCoverFlowPadding.left)
-            - (centerChildWidth >> 1);
-        int rightSpace = (((mWidth >> 1) - mCoverFlowPadding.right) - (centerChildWidth >> 1));
-
-        if (offset <= 0)
-            translateX = ((float) leftSpace / mHalfVisibleImageCount)
-                * (mHalfVisibleImageCount + offset) + mCoverFlowPadding.left;
-
-        else
-            translateX = mWidth - ((float) rightSpace / mHalfVisibleImageCount)
-                * (mHalfVisibleImageCount - offset) - childWidth
-                - mCoverFlowPadding.right;
-
-//        float alpha = (float) 254 - Math.abs(offset) * STANDARD_ALPHA;
-//
-//        if (alpha < 0) {
-//            alpha = 0;
-//        } else if (alpha > 254) {
-//            alpha = 254;
-//        }
-
-        float alpha = 254; // do not make image transparent
-        mDrawChildPaint.setAlpha((int) alpha);
-
-        mChildTransformer.preTranslate(0, -(childTotalHeight >> 1));
-        // matrix中的postxxx为顺序执行，相反prexxx为倒叙执行
-        mChildTransformer.postScale(childHeightScale, childHeightScale);
-
-        if ((offset - (int) offset) == 0.0f) {
-//            Log.e(TAG, "offset=>" + offset + " scale=>" + childHeightScale);
+    private void drawChildrenCulled(Canvas canvas, int mid, int startPos, int endPos,
+                                    double offset) {
+        final ChildDraw[] draws = mChildDraws;
+        int count = 0;
+        for (int i = startPos; i < mid; ++i) {
+            prepareChild(draws[count++], mid, i, (float) (i - offset));
         }
+        for (int i = endPos; i >= mid; --i) {
+            prepareChild(draws[count++], mid, i, (float) (i - offset));
+        }
+
+        for (int i = 0; i < count; ++i) {
+            final ChildDraw draw = draws[i];
+            if (draw.child == null) {
+                draw.occluder.setEmpty();
+                continue;
+            }
 
-        // if actually child height is larger or smaller than original child
-        // height
-        // need to change translate distance of y-axis
-        float adjustedChildTranslateY = 0;
-        if (childHeightScale != 1) {
-            adjustedChildTranslateY = (mChildHeight - childTotalHeight) >> 1;
+            final RectF occluder = draw.occluder;
+            occluder.set(0, 0, draw.cover.getWidth(), draw.cover.getHeight());
+            draw.childMatrix.mapRect(occluder);
+            // Paint alpha is never above 254, which lets at most one step of
+            // what is below show through
+            if (draw.child.hasAlpha() || draw.alpha < 254
+                || !draw.childMatrix.rectStaysRect()) {
+                occluder.setEmpty();
+            } else {
+                // Edges are blended with what is below
+                occluder.inset(1, 1);
+            }
         }
 
-        mChildTransformer.postTranslate(translateX, mChildTranslateY
-            + adjustedChildTranslateY);
+        long culledPixels = 0;
+        final RectF bounds = mCullBounds;
+        final RectF visible = mCullVisible;
+        for (int i = 0; i < count; ++i) {
+            final ChildDraw draw = draws[i];
+            if (draw.child == null) {
+                continue;
+            }
+
+            bounds.set(0, 0, draw.cover.getWidth(), draw.cover.getHeight());
+            draw.childMatrix.mapRect(bounds);
+            visible.set(bounds);
+            for (int j = i + 1; j < count && !visible.isEmpty(); ++j) {
+                cutOff(visible, draws[j].occluder);
+            }
 
-        // Log.d(TAG, "position= " + position + " mChildTranslateY= "
-        // + mChildTranslateY + adjustedChildTranslateY);
+            if (visible.equals(bounds)) {
+                drawChild(canvas, draw, null);
+                continue;
+            }
 
-        getCustomTransformMatrix(mChildTransformer, mDrawChildPaint, child,
-            position, offset);
+            culledPixels += (long) (bounds.width() * bounds.height()
+                - Math.max(0, visible.width()) * Math.max(0, visible.height()));
+            drawChild(canvas, draw, visible);
+        }
 
-        mChildTransformer.postTranslate(0, (childTotalHeight >> 1));
+        for (int i = 0; i < count; ++i) {
+            draws[i].clear();
+        }
 
-        mReflectionTransformer.preTranslate(0, -(childTotalHeight >> 1));
-        mReflectionTransformer.postScale(childHeightScale, childHeightScale);
-        mReflectionTransformer.postTranslate(translateX, mReflectionTranslateY
-            * scale + adjustedChildTranslateY);
-        getCustomTransformMatrix(mReflectionTransformer, mDrawChildPaint,
-            child, position, offset);
-        mReflectionTransformer.postTranslate(0, (childTotalHeight >> 1));
+        if (mMetrics != null) {
+            mMetrics.recordCulledPixels(culledPixels);
+        }
     }
 
     /**
-     * <ul>
-     * <li>This is an empty method.</li>
-     * <li>Giving user a chance to make more transform base on standard.</li>
-     * </ul>
-     *
-     * @param mDrawChildPaint paint, user can set alpha
-     * @param child           bitmap to draw
-     * @param position
-     * @param offset          offset to center(zero)
+     * Remove occluder from visible if what is left is still a rect.
      */
-    protected void getCustomTransformMatrix(Matrix transfromer,
-                                            Paint mDrawChildPaint, Bitmap child, int position, float offset) {
+    private static void cutOff(RectF visible, RectF occluder) {
+        if (occluder.isEmpty() || occluder.top > visible.top
+            || occluder.bottom < visible.bottom
+            || occluder.right <= visible.left || occluder.left >= visible.right) {
+            return;
+        }
 
-        /** example code to make image y-axis rotation **/
-        // Camera c = new Camera();
-        // c.save();
-        // Matrix m = new Matrix();
-        // c.rotateY(10 * (-offset));
-        // c.getMatrix(m);
-        // c.restore();
-        // m.preTranslate(-(child.getWidth() >> 1), -(child.getHeight() >> 1));
-        // m.postTranslate(child.getWidth() >> 1, child.getHeight() >> 1);
-        // mChildTransfromMatrix.preConcat(m);
+        if (occluder.left <= visible.left) {
+            visible.left = Math.min(occluder.right, visible.right);
+        } else if (occluder.right >= visible.right) {
+            visible.right = Math.max(occluder.left, visible.left);
+        }
     }
 
-    private void imageOnTop(int position) {
-        mTopImageIndex = position;
+    /**
+     * Side covers are drawn smaller than their bitmap, so a pre-scaled copy
+     * not smaller than the drawn size looks the same and is cheaper to
+     * filter and upload. Adjusts mChildTransformer to the returned bitmap.
+     */
+    private Bitmap obtainLevelOfDetail(int actuallyPosition, Bitmap child) {
+        if (!mLevelOfDetailEnabled) {
+            return child;
+        }
 
-        final int[] wAndh = mImageRecorder.get(position);
+        final int level = CoverGenerator.lodLevelFor(mChildScale);
+        if (level == 0) {
+            return child;
+        }
 
-        final int heightInView = (int) (mChildHeight - mChildHeight
-            * reflectHeightFraction - reflectGap);
-        final float scale = (float) heightInView / wAndh[1];
-        final int widthInView = (int) (wAndh[0] * scale);
+        // Draw the cover itself until the level has been generated
+        final Bitmap lod = obtainCover(actuallyPosition, level, child);
+        if (lod == null) {
+            return child;
+        }
 
-//        Log.e(TAG, "height ==>" + heightInView + " width ==>"
-//                + widthInView);
+        mChildTransformer.preScale((float) child.getWidth() / lod.getWidth(),
+            (float) child.getHeight() / lod.getHeight());
+        return lod;
+    }
 
-        mTouchRect.left = (mWidth >> 1) - (widthInView >> 1);
-        mTouchRect.top = mChildTranslateY;
-        mTouchRect.right = mTouchRect.left + widthInView;
-        mTouchRect.bottom = mTouchRect.top + heightInView;
+    /**
+     * Draw the reflection of child without a reflection bitmap: a rect is
+     * filled with the bottom of child upside down, faded out by a gradient
+     * in the same shader. Places pixels exactly where the cached reflection
+     * bitmap would be drawn by transformer.
+     */
+    private void drawReflection(Canvas canvas, Bitmap child, Matrix transformer,
+                                int alpha) {
+        final int reflectionHeight = (int) (reflectHeightFraction * child.getHeight());
+        if (reflectionHeight <= 0) {
+            return;
+        }
 
-//        Log.e(TAG, "rect==>" + mTouchRect);
+        mReflectionPaint.setShader(obtainReflectionShader(child, reflectionHeight));
+        mReflectionPaint.setAlpha(alpha);
 
-        if (mCoverFlowListener != null) {
-            mCoverFlowListener.imageOnTop(this, position, mTouchRect.left,
-                mTouchRect.top, mTouchRect.right, mTouchRect.bottom);
-        }
+        final int saveCount = canvas.save();
+        canvas.concat(transformer);
+        canvas.drawRect(0, 0, child.getWidth(), reflectionHeight, mReflectionPaint);
+        canvas.restoreToCount(saveCount);
     }
 
-    private static final float MIN_SCROLL_DISTANCE = 10f;
+    /**
+     * @return the reflection shader of child, created if it is not kept
+     * yet in place of the one used least recently. Only the bitmap shader
+     * of child and its composition with the gradient are new then.
+     */
+    private Shader obtainReflectionShader(Bitmap child, int reflectionHeight) {
+        final ReflectionShader[] shaders = mReflectionShaders;
+        ReflectionShader oldest = null;
+        for (ReflectionShader shader : shaders) {
+            if (shader.child == child && shader.reflectionHeight == reflectionHeight) {
+                shader.lastUse = ++mReflectionShaderUses;
+                if (mMetrics != null) {
+                    mMetrics.recordReflection(true);
+                }
+                return shader.shader;
+            }
+            if (oldest == null || shader.lastUse < oldest.lastUse) {
+                oldest = shader;
+            }
+        }
+
+        if (mMetrics != null) {
+            mMetrics.recordReflection(false);
+        }
+
+        mReflectionFlip.setScale(1, -1);
+        mReflectionFlip.postTranslate(0, child.getHeight());
+        final BitmapShader bitmapShader = new BitmapShader(child,
+            Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        bitmapShader.setLocalMatrix(mReflectionFlip);
+        if (mReflectionMask == null || mReflectionMaskHeight != reflectionHeight) {
+            mReflectionMask = new LinearGradient(0, 0, 0, reflectionHeight,
+                0x70FFFFFF, 0x00FFFFFF, Shader.TileMode.CLAMP);
+            mReflectionMaskHeight = reflectionHeight;
+        }
+        final Shader shader = new ComposeShader(bitmapShader, mReflectionMask,
+            PorterDuff.Mode.DST_IN);
+
+        if (oldest == null) {
+            // Not measured yet
+            return shader;
+        }
+        oldest.child = child;
+        oldest.reflectionHeight = reflectionHeight;
+        oldest.shader = shader;
+        oldest.lastUse = ++mReflectionShaderUses;
+        return shader;
+    }
+
+    /**
+     * Let go of the covers held by reflection shaders.
+     */
+    private void clearReflectionShaders() {
+        for (ReflectionShader shader : mReflectionShaders) {
+            shader.child = null;
+            shader.shader = null;
+            shader.lastUse = 0;
+        }
+        mReflectionPaint.setShader(null);
+    }
+
+    /**
+     * <ul>
+     * <li>对bitmap进行伪3d变换</li>
+     * </ul>
+     *
+     * @param child
+     * @param position
+     * @param offset
+     */
+    private void makeChildTransformer(Bitmap child, int mid, int position, float offset) {
+        final CoverFlowLayout t = mLayout;
+        t.transform(position, child.getWidth(), child.getHeight(), offset);
+        mChildScale = t.scale;
+
+        mDrawChildPaint.setAlpha(254); // do not make image transparent
+
+        // matrix中的postxxx为顺序执行，相反prexxx为倒叙执行
+        // Same as translating by -pivotY, then scaling and translating
+        mChildTransformer.setScale(t.scale, t.scale);
+        mChildTransformer.postTranslate(t.translateX, t.translateY - t.pivotY * t.scale);
+        getCustomTransformMatrix(mChildTransformer, mDrawChildPaint, child,
+            position, offset);
+        mChildTransformer.postTranslate(0, t.pivotY);
+
+        mReflectionTransformer.setScale(t.scale, t.scale);
+        mReflectionTransformer.postTranslate(t.translateX,
+            t.reflectionTranslateY - t.pivotY * t.scale);
+        getCustomTransformMatrix(mReflectionTransformer, mDrawChildPaint,
+            child, position, offset);
+        mReflectionTransformer.postTranslate(0, t.pivotY);
+    }
+
+    private void updateLayout() {
+        mLayout.setLayout(mWidth, mCoverFlowPadding.left,
+            mCoverFlowPadding.right, mChildHeight, mChildTranslateY,
+            mReflectionTranslateY, reflectHeightFraction, reflectGap,
+            mHalfVisibleImageCount);
+        mTopRectDirty = true;
+    }
+
+    /**
+     * <ul>
+     * <li>This is an empty method.</li>
+     * <li>Giving user a chance to make more transform base on standard.</li>
+     * </ul>
+     *
+     * @param mDrawChildPaint paint, user can set alpha
+     * @param child           bitmap to draw
+     * @param position
+     * @param offset          offset to center(zero)
+     */
+    protected void getCustomTransformMatrix(Matrix transfromer,
+                                            Paint mDrawChildPaint, Bitmap child, int position, float offset) {
+
+        /** example code to make image y-axis rotation **/
+        // Camera c = new Camera();
+        // c.save();
+        // Matrix m = new Matrix();
+        // c.rotateY(10 * (-offset));
+        // c.getMatrix(m);
+        // c.restore();
+        // m.preTranslate(-(child.getWidth() >> 1), -(child.getHeight() >> 1));
+        // m.postTranslate(child.getWidth() >> 1, child.getHeight() >> 1);
+        // mChildTransfromMatrix.preConcat(m);
+    }
+
+    private void imageOnTop(int index) {
+        final int position = getActuallyPosition(index);
+        if (position == mTopImageIndex && !mTopRectDirty) {
+            return;
+        }
+        mTopImageIndex = position;
+        mTopRectDirty = false;
+
+        final int slot = recordImageSize(index, null);
+        mLayout.getTopRect(mRecordedWidths[slot], mRecordedHeights[slot], mTopRect);
+
+        mTouchRect.set(mTopRect[CoverFlowLayout.LEFT], mTopRect[CoverFlowLayout.TOP],
+            mTopRect[CoverFlowLayout.RIGHT], mTopRect[CoverFlowLayout.BOTTOM]);
+
+//        Log.e(TAG, "rect==>" + mTouchRect);
+
+        mEventDispatcher.dispatchTopImage(position, mTouchRect);
+    }
+
+    private static final float MIN_SCROLL_DISTANCE = 10f;
     private float downX = 0f;
     private float downY = 0f;
     private float deltaX = 0f;
@@ -683,8 +1243,8 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
                     getParent().requestDisallowInterceptTouchEvent(true);
 //                    Log.d(TAG, "onTouchEvent: down, requestDisallow = true");
                 }
-                if (mScroller.computeScrollOffset()) {
-                    mScroller.abortAnimation();
+                if (mAnimation == ANIMATION_SCROLL) {
+                    stopAnimation();
                     invalidate();
                 }
                 deltaX = 0f;
@@ -723,6 +1283,7 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
                 return true;
             case MotionEvent.ACTION_CANCEL:
 //                Log.d(TAG, "onTouchEvent: cancel");
+                mDragging = false;
                 return false;
         }
         return false;
@@ -752,43 +1313,63 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         float x = event.getX();
         mTouchStartX = x;
         mTouchStartY = event.getY();
-        mStartTime = AnimationUtils.currentAnimationTimeMillis();
         mStartOffset = mOffset;
 
         mTouchMoved = false;
 
-        mTouchStartPos = (x / mWidth) * MOVE_POS_MULTIPLE - 5;
-        mTouchStartPos /= 2;
+        mTouchStartPos = CoverFlowLayout.touchPosition(x, mWidth);
 
         mVelocity = VelocityTracker.obtain();
         mVelocity.addMovement(event);
     }
 
     private void touchMoved(MotionEvent event) {
-        float pos = (event.getX() / mWidth) * MOVE_POS_MULTIPLE - 5;
-        pos /= 2;
+        final float pos = CoverFlowLayout.touchPosition(event.getX(), mWidth);
 
         if (!mTouchMoved) {
             float dx = Math.abs(event.getX() - mTouchStartX);
             float dy = Math.abs(event.getY() - mTouchStartY);
 
-            if (dx < TOUCH_MINIMUM_MOVE && dy < TOUCH_MINIMUM_MOVE)
+            if (dx < TOUCH_MINIMUM_MOVE && dy < TOUCH_MINIMUM_MOVE) {
+                dragNotMoved();
                 return;
+            }
 
             mTouchMoved = true;
+            mDragging = true;
+            leaveIdleLayer();
 
             stopLongClick();
         }
 
+        final double lastOffset = mOffset;
         mOffset = mStartOffset + mTouchStartPos - pos;
+        if (mOffset == lastOffset) {
+            dragNotMoved();
+            mVelocity.addMovement(event);
+            return;
+        }
+        mMovedFrameNanos = System.nanoTime();
+
+        // look one cover ahead in the direction of the drag
+        prefetch(mOffset, mOffset < lastOffset ? mOffset - 1 : mOffset + 1);
 
         invalidate();
         mVelocity.addMovement(event);
     }
 
+    /**
+     * A resting finger asks for no frames, so none are dropped until it
+     * moves again
+     */
+    private void dragNotMoved() {
+        if (mMetrics != null) {
+            mMetrics.recordIdle();
+        }
+    }
+
     private void touchEnded(MotionEvent event) {
-        float pos = (event.getX() / mWidth) * MOVE_POS_MULTIPLE - 5;
-        pos /= 2;
+        final float pos = CoverFlowLayout.touchPosition(event.getX(), mWidth);
 
         if (mTouchMoved || (mOffset - Math.floor(mOffset)) != 0) {
             mStartOffset += mTouchStartPos - pos;
@@ -797,13 +1378,7 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             mVelocity.addMovement(event);
 
             mVelocity.computeCurrentVelocity(1000);
-            double speed = mVelocity.getXVelocity();
-
-            speed = (speed / mWidth) * MOVE_SPEED_MULTIPLE;
-            if (speed > MAX_SPEED)
-                speed = MAX_SPEED;
-            else if (speed < -MAX_SPEED)
-                speed = -MAX_SPEED;
+            final double speed = CoverFlowLayout.flingSpeed(mVelocity.getXVelocity(), mWidth);
 
             startAnimation(-speed);
         } else {
@@ -811,79 +1386,151 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
 //                    " touch ==>" + event.getX() + " , " + event.getY());
             if (mTouchRect != null) {
                 if (mTouchRect.contains(event.getX(), event.getY())
-                    && mCoverFlowListener != null && topImageClickEnable
+                    && mEventDispatcher.getCoverFlowListener() != null
+                    && topImageClickEnable
                     && !mLongClickTriggled) {
                     final int actuallyPosition = mTopImageIndex;
 
-                    mCoverFlowListener.topImageClicked(this, actuallyPosition);
+                    mEventDispatcher.getCoverFlowListener()
+                        .topImageClicked(this, actuallyPosition);
                 }
             }
         }
 
         mVelocity.clear();
         mVelocity.recycle();
+        mDragging = false;
     }
 
     private void startAnimation(double speed) {
-        if (mAnimationRunnable != null)
+        if (mAnimation == ANIMATION_FLING)
             return;
 
-        double delta = speed * speed / (FRICTION * 2);
-        if (speed < 0)
-            delta = -delta;
+        final double nearest = mLayout.startFling(mStartOffset, speed);
+        prefetch(mStartOffset, nearest);
 
-        double nearest = mStartOffset + delta;
-        nearest = Math.floor(nearest + 0.5);
+        startAnimation(ANIMATION_FLING);
+    }
 
-        mStartSpeed = (float) Math.sqrt(Math.abs(nearest - mStartOffset)
-            * FRICTION * 2);
-        if (nearest < mStartOffset)
-            mStartSpeed = -mStartSpeed;
+    private void startAnimation(int animation) {
+        leaveIdleLayer();
+        mAnimation = animation;
+        mAnimationStartNanos = System.nanoTime();
+        mFrameAnimator.start();
+    }
 
-        mDuration = Math.abs(mStartSpeed / FRICTION);
-        mStartTime = AnimationUtils.currentAnimationTimeMillis();
+    /**
+     * Set mOffset for the frame at frameTimeNanos. Package private so tests
+     * can drive the frames of an animation themselves.
+     *
+     * @return false once the animation is over
+     */
+    boolean updateAnimation(long frameTimeNanos) {
+        // The frame may have started before the animation did
+        final long elapsedNanos = Math.max(0, frameTimeNanos - mAnimationStartNanos);
+        if (mAnimation != ANIMATION_NONE) {
+            mMovedFrameNanos = frameTimeNanos;
+        }
 
-        mAnimationRunnable = new Runnable() {
-            @Override
-            public void run() {
-                driveAnimation();
+        if (mAnimation == ANIMATION_FLING) {
+            final float elapsed = elapsedNanos / 1000000000.0f;
+            if (elapsed >= mLayout.getFlingDuration()) {
+                endAnimation();
+                return false;
             }
-        };
-        post(mAnimationRunnable);
-    }
-
-    private void driveAnimation() {
-        float elapsed = (AnimationUtils.currentAnimationTimeMillis() - mStartTime) / 1000.0f;
-        if (elapsed >= mDuration)
-            endAnimation();
-        else {
-            updateAnimationAtElapsed(elapsed);
-            post(mAnimationRunnable);
+            mOffset = mLayout.getFlingOffset(elapsed);
+        } else if (mAnimation == ANIMATION_SCROLL) {
+            if (elapsedNanos >= mScrollDurationNanos) {
+                mOffset = mScrollToOffset;
+                mAnimation = ANIMATION_NONE;
+                invalidate();
+                return false;
+            }
+            final float fraction = mScrollInterpolator.getInterpolation(
+                (float) elapsedNanos / mScrollDurationNanos);
+            mOffset = mScrollFromOffset + (mScrollToOffset - mScrollFromOffset) * fraction;
+        } else {
+            return false;
         }
+
+        invalidate();
+        return true;
     }
 
+    /**
+     * Stop the running animation, a fling comes to rest on the nearest cover
+     */
     private void endAnimation() {
-        if (mAnimationRunnable != null) {
-            mOffset = (float) Math.floor(mOffset + 0.5);
+        if (mAnimation == ANIMATION_FLING) {
+            mOffset = wrapOffset(Math.floor(mOffset + 0.5));
 
             invalidate();
-
-            removeCallbacks(mAnimationRunnable);
-            mAnimationRunnable = null;
         }
+        stopAnimation();
+    }
+
+    /**
+     * Stop the running animation where it is
+     */
+    private void stopAnimation() {
+        mAnimation = ANIMATION_NONE;
+        mFrameAnimator.stop();
     }
 
-    private void updateAnimationAtElapsed(float elapsed) {
-        if (elapsed > mDuration)
-            elapsed = mDuration;
+    /**
+     * Ask for every image which will be drawn while scrolling from one offset
+     * to another, so they are ready before they scroll into view. Synchronous
+     * adapters only get {@link CoverFlowAdapter#prefetchImage(int)}. Images are
+     * requested in the direction of travel, the ones around the landing
+     * offset last, so they survive if the loader has to drop requests.
+     */
+    private void prefetch(double fromOffset, double toOffset) {
+        if (mAdapter == null || mItemCount <= 0) {
+            return;
+        }
+
+        final int from = (int) Math.floor(fromOffset + 0.5);
+        final int to = (int) Math.floor(toOffset + 0.5);
+        final int start = Math.min(from, to) - mHalfVisibleImageCount;
+        final int end = Math.max(from, to) + mHalfVisibleImageCount;
 
-        float delta = Math.abs(mStartSpeed) * elapsed - FRICTION * elapsed
-            * elapsed / 2;
-        if (mStartSpeed < 0)
-            delta = -delta;
+        if (start == mPrefetchStart && end == mPrefetchEnd) {
+            return;
+        }
+        mPrefetchStart = start;
+        mPrefetchEnd = end;
+
+        // Never walk more than one loop of the data set
+        final int count = Math.min(end - start + 1, mItemCount);
+        for (int i = 0; i < count; ++i) {
+            final int index = to >= from ? end - count + 1 + i : start + count - 1 - i;
+            final int actuallyPosition = getActuallyPosition(index);
+
+            if (mImageLoader != null) {
+                // Loads the image off the UI thread, its reflection is
+                // requested once it is delivered
+                prefetchReflection(actuallyPosition,
+                    mImageLoader.getImage(actuallyPosition));
+            } else {
+                // getImage() may decode, so it is left to the frame which
+                // draws the image, which requests the reflection as well
+                mAdapter.prefetchImage(actuallyPosition);
+            }
+        }
+    }
 
-        mOffset = mStartOffset + delta;
-        invalidate();
+    private void prefetchReflection(int actuallyPosition, Bitmap src) {
+        if (reflectHeightFraction <= 0 || src == null || mAdapter == null
+            || mReflectionMode != CoverFlowReflectionMode.CACHED_BITMAP) {
+            return;
+        }
+
+        final long itemId = mAdapter.getItemId(actuallyPosition);
+        if (!isDerivedFrom(mCoverCache.get(itemId, CoverGenerator.KIND_REFLECTION,
+            mCoverCacheStats), CoverGenerator.KIND_REFLECTION, src)) {
+            mCoverGenerator.request(itemId, CoverGenerator.KIND_REFLECTION, src,
+                reflectHeightFraction);
+        }
     }
 
     /**
@@ -893,45 +1540,197 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
      * @return
      */
     private int getActuallyPosition(int position) {
-        if (mAdapter == null) {
+        if (mAdapter == null || mItemCount <= 0) {
             return INVALID_POSITION;
         }
 
-        int max = mAdapter.getCount();
+        return PositionUtils.wrap((long) position + mHalfVisibleImageCount, mItemCount);
+    }
 
-        position += mHalfVisibleImageCount;
-        while (position < 0 || position >= max) {
-            if (position < 0) {
-                position += max;
-            } else if (position >= max) {
-                position -= max;
+    /**
+     * Same offset in the first loop, [-mHalfVisibleImageCount,
+     * mItemCount - mHalfVisibleImageCount). Covers are drawn the same, but
+     * precision does not run out after long sessions.
+     */
+    private double wrapOffset(double offset) {
+        if (mItemCount <= 0) {
+            return offset;
+        }
+
+        return PositionUtils.wrap(offset + mHalfVisibleImageCount, mItemCount)
+            - mHalfVisibleImageCount;
+    }
+
+    /**
+     * Image to draw for position in adapter, the placeholder of an
+     * {@link AsyncCoverFlowAdapter} is returned until its image is loaded.
+     */
+    private Bitmap obtainImage(int actuallyPosition) {
+        if (mImageLoader != null) {
+            final Bitmap image = mImageLoader.getImage(actuallyPosition);
+            if (image != null) {
+                return image;
             }
         }
 
-        return position;
+        return mAdapter.getImage(actuallyPosition);
     }
 
-    private Bitmap obtainReflection(Bitmap src) {
+    /**
+     * Record width and height of the image drawn at index, from the size
+     * hint of the adapter if it gives one, else from image or the image
+     * obtained for its position. Recorded until the image changes.
+     *
+     * @return slot of index in mRecordedWidths and mRecordedHeights
+     */
+    private int recordImageSize(int index, Bitmap image) {
+        final int actuallyPosition = getActuallyPosition(index);
+        final int slot = index & (mRecordedPositions.length - 1);
+        if (mRecordedPositions[slot] == actuallyPosition) {
+            return slot;
+        }
+
+        if (mAdapter.getImageSize(actuallyPosition, mImageSizeHint)) {
+            mRecordedWidths[slot] = mImageSizeHint[0];
+            mRecordedHeights[slot] = mImageSizeHint[1];
+        } else {
+            if (image == null) {
+                image = obtainImage(actuallyPosition);
+            }
+            mRecordedWidths[slot] = image.getWidth();
+            mRecordedHeights[slot] = image.getHeight();
+        }
+        mRecordedPositions[slot] = actuallyPosition;
+
+        return slot;
+    }
+
+    private void forgetImageSize(int actuallyPosition) {
+        // Drawn at several indices if there are fewer items than covers
+        for (int slot = 0; slot < mRecordedPositions.length; ++slot) {
+            if (mRecordedPositions[slot] == actuallyPosition) {
+                mRecordedPositions[slot] = INVALID_POSITION;
+            }
+        }
+        if (actuallyPosition == mTopImageIndex) {
+            mTopRectDirty = true;
+        }
+    }
+
+    /**
+     * @return true if position in adapter is drawn at current offset
+     */
+    private boolean isPositionVisible(int actuallyPosition) {
+        final int mid = (int) Math.floor(mOffset + 0.5);
+        final int leftChild = mVisibleChildCount >> 1;
+        for (int i = mid - leftChild; i < mid - leftChild + mVisibleChildCount; ++i) {
+            if (getActuallyPosition(i) == actuallyPosition) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isImageVisible(Bitmap image) {
+        if (mAdapter == null) {
+            return false;
+        }
+
+        final int mid = (int) Math.floor(mOffset + 0.5);
+        final int leftChild = mVisibleChildCount >> 1;
+        for (int i = mid - leftChild; i < mid - leftChild + mVisibleChildCount; ++i) {
+            if (obtainImage(getActuallyPosition(i)) == image) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Bitmap obtainReflection(int actuallyPosition, Bitmap src) {
         if (reflectHeightFraction <= 0) {
             return null;
         }
 
-        Bitmap reflection = mRecycler.getCachedReflectiuon(src);
+        // Draw without reflection until the generator has created it
+        final Bitmap reflection = obtainCover(actuallyPosition,
+            CoverGenerator.KIND_REFLECTION, src);
+        if (mMetrics != null) {
+            mMetrics.recordReflection(reflection != null);
+        }
+        return reflection;
+    }
 
-        if (reflection == null || reflection.isRecycled()) {
-            mRecycler.removeReflectionCache(src);
+    /**
+     * @return cached bitmap of kind derived from src, or null if it has to
+     * be generated first. src must not be a placeholder.
+     */
+    private Bitmap obtainCover(int actuallyPosition, int kind, Bitmap src) {
+        final long itemId = mAdapter.getItemId(actuallyPosition);
+        final Bitmap cover = mCoverCache.get(itemId, kind, mCoverCacheStats);
 
-            reflection = BitmapUtils.createReflectedBitmap(src,
-                reflectHeightFraction);
+        if (!isDerivedFrom(cover, kind, src)) {
+            mCoverCache.remove(itemId, kind);
+
+            mCoverGenerator.request(itemId, kind, src, reflectHeightFraction);
+            return null;
+        }
+
+        mFrameCovers.add(cover);
+        return cover;
+    }
 
-            if (reflection != null) {
-                mRecycler.buildReflectionCache(src, reflection);
+    /**
+     * Pin what was drawn in this frame and unpin what is not drawn any more.
+     * The cache is shared with other views, which may evict these bitmaps
+     * while a display list still refers to them.
+     */
+    private void updatePinnedCovers() {
+        final ArrayList<Bitmap> frame = mFrameCovers;
+        final ArrayList<Bitmap> pinned = mPinnedCovers;
 
-                return reflection;
+        for (int i = 0; i < frame.size(); ++i) {
+            if (!pinned.contains(frame.get(i))) {
+                mCoverCache.pin(frame.get(i));
+            }
+        }
+        for (int i = 0; i < pinned.size(); ++i) {
+            if (!frame.contains(pinned.get(i))) {
+                mCoverCache.unpin(pinned.get(i));
             }
         }
 
-        return reflection;
+        pinned.clear();
+        mPinnedCovers = frame;
+        mFrameCovers = pinned;
+    }
+
+    private void unpinCovers() {
+        for (int i = 0; i < mPinnedCovers.size(); ++i) {
+            mCoverCache.unpin(mPinnedCovers.get(i));
+        }
+        mPinnedCovers.clear();
+        mFrameCovers.clear();
+    }
+
+    /**
+     * Derived bitmaps are keyed by item id rather than by bitmap, so a cached
+     * one may have been built from an image of other size, e.g. before the
+     * image of an async adapter was reloaded at another size.
+     */
+    private boolean isDerivedFrom(Bitmap cover, int kind, Bitmap src) {
+        if (cover == null || cover.isRecycled()) {
+            return false;
+        }
+
+        if (kind == CoverGenerator.KIND_REFLECTION) {
+            return cover.getWidth() == src.getWidth()
+                && cover.getHeight() == (int) (reflectHeightFraction * src.getHeight());
+        }
+
+        return cover.getWidth() == CoverGenerator.lodSize(src.getWidth(), kind)
+            && cover.getHeight() == CoverGenerator.lodSize(src.getHeight(), kind);
     }
 
     public void setVisibleImage(int totalVisibleCount) {
@@ -960,6 +1759,88 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         mLayoutMode = mode;
     }
 
+    /**
+     * Draw side covers from pre-scaled copies, which costs some memory in
+     * the cover cache. Disabled by default.
+     */
+    public void setLevelOfDetailEnabled(boolean enabled) {
+        mLevelOfDetailEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * Clip each cover to the part nearer opaque covers leave visible,
+     * instead of drawing it all and covering most of it again. Only covers
+     * without transparent pixels hide others, and only while
+     * {@link #getCustomTransformMatrix} keeps covers upright rects. The
+     * paint state other than alpha set by getCustomTransformMatrix() applies
+     * to all covers, since all are transformed before the first is drawn.
+     * Disabled by default.
+     */
+    public void setOcclusionCullingEnabled(boolean enabled) {
+        mOcclusionCullingEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * Keep the frame of resting covers in a hardware layer, so redrawing the
+     * view blits one texture instead of drawing every cover and reflection
+     * again. The layer is dropped while covers move. Costs a texture of the
+     * size of the view, worth it when other content animates around the
+     * view. Disabled by default, has no effect before Honeycomb, in windows
+     * which are not hardware accelerated, when the app set a layer type
+     * itself or while memory is short.
+     */
+    public void setIdleLayerEnabled(boolean enabled) {
+        mIdleLayerEnabled = enabled;
+        if (enabled) {
+            invalidate();
+        } else {
+            leaveIdleLayer();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void enterIdleLayer() {
+        if (!mIdleLayerEnabled || mIdleLayer || mAnimation != ANIMATION_NONE
+            || mDragging || mMemoryManager.getTrimFactor() < 1
+            || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+            // A software window would get a software bitmap layer instead
+            || !isHardwareAccelerated()
+            || getLayerType() != LAYER_TYPE_NONE) {
+            return;
+        }
+
+        setLayerType(LAYER_TYPE_HARDWARE, null);
+        mIdleLayer = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void leaveIdleLayer() {
+        removeCallbacks(mIdleLayerRunnable);
+        if (mIdleLayer) {
+            mIdleLayer = false;
+            setLayerType(LAYER_TYPE_NONE, null);
+        }
+    }
+
+    public void setCoverFlowReflectionMode(CoverFlowReflectionMode mode) {
+        if (mode == mReflectionMode) {
+            return;
+        }
+
+        mReflectionMode = mode;
+        if (mode != CoverFlowReflectionMode.SHADER) {
+            clearReflectionShaders();
+        }
+        final int otherViews = mCoverCache.getViewCount() - (mCoverCacheAttached ? 1 : 0);
+        if (mode == CoverFlowReflectionMode.SHADER && otherViews == 0) {
+            // reflection bitmaps are not used any more
+            mCoverCache.clear();
+        }
+        invalidate();
+    }
+
     public void setReflectionHeight(int fraction) {
         if (fraction < 0)
             fraction = 0;
@@ -967,6 +1848,7 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             fraction = 100;
 
         reflectHeightFraction = fraction;
+        updateLayout();
     }
 
     public void setReflectionGap(int gap) {
@@ -974,6 +1856,7 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
             gap = 0;
 
         reflectGap = gap;
+        updateLayout();
     }
 
     public void disableTopImageClick() {
@@ -985,42 +1868,24 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
     }
 
     public void setSelection(int position) {
-        final int max = mAdapter.getCount();
+        final int max = mItemCount;
         if (position < 0 || position >= max) {
             throw new IllegalArgumentException(
                 "Position want to select can not less than 0 or larger than max of adapter provide!");
         }
 
         if (mTopImageIndex != position) {
-            if (mScroller.computeScrollOffset()) {
-                mScroller.abortAnimation();
-            }
-
-            final int from = (int) (mOffset * 100);
-            final int disX = (int) ((position - mHalfVisibleImageCount) * 100) - from;
-            mScroller.startScroll(
-                from,
-                0,
-                disX,
-                0,
-                DURATION
-                    * Math.min(
-                    Math.abs(position + max - mTopImageIndex),
-                    Math.abs(position - mTopImageIndex)));
-
-            invalidate();
-        }
-    }
-
-    @Override
-    public void computeScroll() {
-        super.computeScroll();
-
-        if (mScroller.computeScrollOffset()) {
-            final int currX = mScroller.getCurrX();
+            stopAnimation();
 
-            mOffset = (float) currX / 100;
+            mScrollFromOffset = mOffset;
+            mScrollToOffset = position - mHalfVisibleImageCount;
+            mScrollDurationNanos = 1000000L * DURATION
+                * Math.min(
+                Math.abs(position + max - mTopImageIndex),
+                Math.abs(position - mTopImageIndex));
+            prefetch(mScrollFromOffset, mScrollToOffset);
 
+            startAnimation(ANIMATION_SCROLL);
             invalidate();
         }
     }
@@ -1037,6 +1902,139 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         }
     }
 
+    /**
+     * Listen to reflections evicted from the cache, the listener may keep the
+     * bitmap for reuse instead of having it recycled. Called while this view
+     * is attached to a window, for evictions caused by any view sharing the
+     * cache.
+     */
+    public void setReflectionEvictionListener(ReflectionEvictionListener listener) {
+        mCoverCache.setEvictionListener(mCoverCacheClient, listener);
+    }
+
+    /**
+     * Pool which recycles buffers of evicted reflections, its hit and miss
+     * counters tell how well the pool size fits.
+     */
+    public BitmapPool getBitmapPool() {
+        return mCoverCache.getBitmapPool();
+    }
+
+    /**
+     * Use cache for reflections and levels of detail, e.g. one cache shared
+     * with other views or {@link CoverCache#getSharedInstance(Context)}.
+     * Null goes back to a cache of this view only.
+     */
+    public void setCoverCache(CoverCache cache) {
+        if (cache == mCoverCache) {
+            return;
+        }
+
+        unpinCovers();
+        mCoverGenerator.release();
+        if (mCoverCacheAttached) {
+            mCoverCache.detach(mCoverCacheClient);
+        }
+        if (mOwnsCoverCache) {
+            mCoverCache.clear();
+            mCoverCache.getBitmapPool().clear();
+        }
+
+        mOwnsCoverCache = cache == null;
+        mCoverCache = cache != null ? cache : new CoverCache(getContext());
+        if (mCoverCacheAttached) {
+            mCoverCache.attach(mCoverCacheClient);
+        }
+        mCoverGenerator = new CoverGenerator(mCoverCallback,
+            mCoverCache.getBitmapPool());
+        updateCoverStore();
+        mCoverCacheStats.reset();
+
+        invalidate();
+    }
+
+    public CoverCache getCoverCache() {
+        return mCoverCache;
+    }
+
+    /**
+     * Keep reflections and levels of detail in store as well, e.g. a
+     * {@link DiskCoverCache}, so they are not created again after the process
+     * restarted. Only used while the adapter has stable ids, which must name
+     * the same image across restarts.
+     */
+    public void setCoverStore(CoverStore store) {
+        mCoverStore = store;
+        updateCoverStore();
+    }
+
+    public CoverStore getCoverStore() {
+        return mCoverStore;
+    }
+
+    private void updateCoverStore() {
+        mCoverGenerator.setCoverStore(mAdapter != null && mAdapter.hasStableIds()
+            ? mCoverStore : null);
+    }
+
+    /**
+     * Hits and misses of this view in its cover cache
+     */
+    public CoverCache.Stats getCoverCacheStats() {
+        return mCoverCacheStats;
+    }
+
+    /**
+     * Record frame timing into metrics, null to stop recording. Nothing is
+     * measured without metrics.
+     */
+    public void setMetrics(CoverFlowMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public CoverFlowMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Byte budget of the cache holding reflections and levels of detail,
+     * ~5% of the heap by default. Shrunk temporarily under memory pressure.
+     */
+    public void setCoverCacheSize(int bytes) {
+        mCoverCache.setMaxSize(bytes);
+    }
+
+    /**
+     * @param fraction part of the heap given to the cover cache
+     */
+    public void setCoverCacheFraction(float fraction) {
+        mCoverCache.setMaxSize((int) (mMemoryManager.getHeapSize() * fraction));
+    }
+
+    /**
+     * Drop cached covers and images which are not on screen. Called by the
+     * system from Ice Cream Sandwich on, before that forward
+     * onLowMemory() of the activity here.
+     */
+    public void onLowMemory() {
+        mMemoryManager.onLowMemory();
+    }
+
+    /**
+     * Byte budget of the images loaded for an {@link AsyncCoverFlowAdapter},
+     * ~12% of the heap by default. Shrunk temporarily under memory pressure.
+     */
+    public void setImageCacheSize(int bytes) {
+        mMemoryManager.setImageCacheSize(bytes);
+    }
+
+    /**
+     * @param fraction part of the heap given to the image cache
+     */
+    public void setImageCacheFraction(float fraction) {
+        mMemoryManager.setImageCacheSize((int) (mMemoryManager.getHeapSize() * fraction));
+    }
+
     public int getTopImageIndex() {
         if (mTopImageIndex == INVALID_POSITION) {
             return -1;
@@ -1061,69 +2059,43 @@ public class CoverFlowView<T extends CoverFlowAdapter> extends View {
         }
     }
 
-    class RecycleBin {
-
-        final LruCache<Integer, Bitmap> bitmapCache = new LruCache<Integer, Bitmap>(
-            getCacheSize(getContext())) {
-            @Override
-            protected int sizeOf(Integer key, Bitmap bitmap) {
-                return BitmapCompat.getAllocationByteCount(bitmap);
-            }
-
-            @Override
-            protected void entryRemoved(boolean evicted, Integer key,
-                                        Bitmap oldValue, Bitmap newValue) {
-                if (evicted && oldValue != null && !oldValue.isRecycled()) {
-                    oldValue.recycle();
-                    oldValue = null;
-                }
-            }
-        };
-
-        public Bitmap getCachedReflectiuon(Bitmap origin) {
-            return bitmapCache.get(origin.hashCode());
-        }
-
-        public void buildReflectionCache(Bitmap origin, Bitmap b) {
-            bitmapCache.put(origin.hashCode(), b);
-            Runtime.getRuntime().gc();
-        }
-
-        public Bitmap removeReflectionCache(Bitmap origin) {
-            if (origin == null) {
-                return null;
-            }
-
-            return bitmapCache.remove(origin.hashCode());
-        }
-
-        public void clear() {
-            bitmapCache.evictAll();
-        }
-
-        private int getCacheSize(Context context) {
-            final ActivityManager am = (ActivityManager) context
-                .getSystemService(Context.ACTIVITY_SERVICE);
-            final int memClass = am.getMemoryClass();
-            // Target ~5% of the available heap.
-            int cacheSize = 1024 * 1024 * memClass / 21;
-
-//            Log.e(TAG, "cacheSize == " + cacheSize);
-            return cacheSize;
-        }
-    }
-
     public interface TopImageLongClickListener {
         void onLongClick(int position);
     }
 
+    public interface ReflectionEvictionListener {
+        /**
+         * Called on the UI thread when the cover cache is over its byte
+         * budget and drops a reflection or a level of detail.
+         *
+         * @return true to take ownership of reflection, false to let the
+         * cache recycle it
+         */
+        boolean onReflectionEvicted(Bitmap reflection);
+    }
+
     public interface CoverFlowListener<V extends CoverFlowAdapter> {
+        /**
+         * Called when covers come to rest with another image on top, or the
+         * top image moved.
+         */
         void imageOnTop(final CoverFlowView<V> coverFlowView,
                         int position, float left, float top, float right, float bottom);
 
         void topImageClicked(final CoverFlowView<V> coverFlowView,
                              int position);
 
+        /**
+         * Called once after covers came to rest and were drawn.
+         */
         void invalidationCompleted();
     }
+
+    public interface OnScrollPositionChangeListener {
+        /**
+         * @param position position in adapter of the cover in the middle,
+         *                 with the fraction scrolled towards the next one
+         */
+        void onScrollPositionChanged(CoverFlowView<?> coverFlowView, float position);
+    }
 }
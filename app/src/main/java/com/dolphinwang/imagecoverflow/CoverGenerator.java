@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates bitmaps derived from covers, reflections and pre-scaled levels of
+ * detail, on a background thread. All methods must be called on the UI
+ * thread, results are delivered on the UI thread as well.
+ */
+class CoverGenerator {
+
+    interface Callback {
+        /**
+         * @param createNanos time the worker took to create or load result
+         */
+        void onCoverCreated(long itemId, int kind, Bitmap src, Bitmap result,
+                            long createNanos);
+    }
+
+    static final int KIND_REFLECTION = 0;
+
+    /**
+     * Levels of detail 1..LOD_LEVELS are the cover scaled by
+     * 1 - level * LOD_STEP.
+     */
+    static final int LOD_LEVELS = 3;
+    static final float LOD_STEP = 0.25f;
+
+    private static final int QUEUE_CAPACITY = 16;
+
+    private static final class Invalidation {
+        final CoverStore store;
+        final String prefix;
+
+        Invalidation(CoverStore store, String prefix) {
+            this.store = store;
+            this.prefix = prefix;
+        }
+    }
+
+    private final Callback mCallback;
+    private final BitmapPool mBitmapPool;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Source being processed for each item id, per kind. A result is only
+     * delivered if its source is still the pending one for its item and kind.
+     */
+    private final ArrayList<LongSparseArray<Bitmap>> mPending =
+        new ArrayList<LongSparseArray<Bitmap>>(LOD_LEVELS + 1);
+
+    /**
+     * Source a result could not be created from, per kind. It is not
+     * requested again until the image of the item changes, or the item is
+     * invalidated.
+     */
+    private final ArrayList<LongSparseArray<Bitmap>> mFailed =
+        new ArrayList<LongSparseArray<Bitmap>>(LOD_LEVELS + 1);
+
+    private WorkerPool mWorker;
+
+    private CoverStore mCoverStore;
+
+    /**
+     * Stored results of invalidated items, removed on the worker before it
+     * next reads a store. Kept apart from the queue of the worker, which
+     * drops tasks when full, so removing them never falls back to disk I/O
+     * on the UI thread. Guarded by itself.
+     */
+    private final ArrayList<Invalidation> mInvalidations = new ArrayList<Invalidation>();
+    private final AtomicBoolean mRemoveQueued = new AtomicBoolean();
+
+    CoverGenerator(Callback callback, BitmapPool bitmapPool) {
+        mCallback = callback;
+        mBitmapPool = bitmapPool;
+
+        for (int kind = 0; kind <= LOD_LEVELS; kind++) {
+            mPending.add(new LongSparseArray<Bitmap>());
+            mFailed.add(new LongSparseArray<Bitmap>());
+        }
+    }
+
+    static float lodScale(int level) {
+        return 1 - level * LOD_STEP;
+    }
+
+    /**
+     * @return the smallest level of detail which is still not smaller than
+     * drawScale, 0 means the cover itself
+     */
+    static int lodLevelFor(float drawScale) {
+        final int level = (int) ((1 - drawScale) / LOD_STEP);
+        return level < 0 ? 0 : (level > LOD_LEVELS ? LOD_LEVELS : level);
+    }
+
+    static int lodSize(int size, int level) {
+        return Math.max(1, Math.round(size * lodScale(level)));
+    }
+
+    /**
+     * Prefix of the names of all cover store entries of item itemId
+     */
+    static String storePrefixOf(long itemId) {
+        return Long.toHexString(itemId) + "_";
+    }
+
+    /**
+     * Name of a derived bitmap in the cover store. Unlike the memory key it
+     * holds everything the result depends on, since the cover store outlives
+     * the settings of the view.
+     */
+    static String storeNameOf(long itemId, int kind, Bitmap src, float reflectHeight) {
+        String name = storePrefixOf(itemId) + kind + "_" + src.getWidth()
+            + "x" + src.getHeight();
+        if (kind == KIND_REFLECTION) {
+            name += "_" + Integer.toHexString(Float.floatToIntBits(reflectHeight));
+        }
+        return name;
+    }
+
+    /**
+     * Look results up in store before creating them, and put new ones
+     * there. Only set for adapters with stable ids.
+     */
+    void setCoverStore(CoverStore store) {
+        mCoverStore = store;
+    }
+
+    /**
+     * Create the bitmap of kind derived from src, the image of item itemId.
+     * Kind is KIND_REFLECTION or a level of detail.
+     */
+    void request(final long itemId, final int kind, final Bitmap src,
+                 final float reflectHeight) {
+        if (src == null || src.isRecycled()) {
+            return;
+        }
+
+        final LongSparseArray<Bitmap> pending = mPending.get(kind);
+        final LongSparseArray<Bitmap> failed = mFailed.get(kind);
+        if (pending.get(itemId) == src || failed.get(itemId) == src) {
+            return;
+        }
+
+        if (mWorker == null) {
+            mWorker = new WorkerPool("CoverFlowGenerator", 1, QUEUE_CAPACITY);
+        }
+
+        pending.put(itemId, src);
+
+        final CoverStore store = mCoverStore;
+        final String storeName = store != null
+            ? storeNameOf(itemId, kind, src, reflectHeight) : null;
+
+        mWorker.execute(new WorkerPool.Task() {
+            @Override
+            public void run() {
+                // Old results must not come back from disk
+                removeInvalidated();
+
+                final long start = System.nanoTime();
+                Bitmap result = store != null ? store.get(storeName, mBitmapPool) : null;
+                if (result != null || src.isRecycled()) {
+                    // Loaded from disk, or nothing to create it from
+                } else if (kind == KIND_REFLECTION) {
+                    result = BitmapUtils.createReflectedBitmap(src, reflectHeight,
+                        mBitmapPool);
+                    if (store != null) {
+                        store.put(storeName, result);
+                    }
+                } else {
+                    result = BitmapUtils.createScaledBitmap(src,
+                        lodSize(src.getWidth(), kind),
+                        lodSize(src.getHeight(), kind), mBitmapPool);
+                    if (store != null) {
+                        store.put(storeName, result);
+                    }
+                }
+                final Bitmap created = result;
+                final long createNanos = System.nanoTime() - start;
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pending.get(itemId) != src) {
+                            if (created != null && !mBitmapPool.put(created)) {
+                                created.recycle();
+                            }
+                            return;
+                        }
+
+                        pending.delete(itemId);
+                        if (created != null) {
+                            failed.delete(itemId);
+                            mCallback.onCoverCreated(itemId, kind, src, created,
+                                createNanos);
+                        } else {
+                            failed.put(itemId, src);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            void onDropped() {
+                if (pending.get(itemId) == src) {
+                    pending.delete(itemId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget the pending requests of item itemId, their results will be
+     * thrown away.
+     */
+    void cancel(long itemId) {
+        for (int kind = 0; kind <= LOD_LEVELS; kind++) {
+            mPending.get(kind).delete(itemId);
+        }
+    }
+
+    /**
+     * Cancel item itemId and delete its results from the cover store, its
+     * image changed.
+     */
+    void invalidate(final long itemId) {
+        cancel(itemId);
+        for (int kind = 0; kind <= LOD_LEVELS; kind++) {
+            mFailed.get(kind).delete(itemId);
+        }
+
+        final CoverStore store = mCoverStore;
+        if (store == null) {
+            return;
+        }
+        synchronized (mInvalidations) {
+            mInvalidations.add(new Invalidation(store, storePrefixOf(itemId)));
+        }
+
+        if (mWorker == null) {
+            mWorker = new WorkerPool("CoverFlowGenerator", 1, QUEUE_CAPACITY);
+        }
+        if (mRemoveQueued.compareAndSet(false, true)) {
+            mWorker.execute(new WorkerPool.Task() {
+                @Override
+                public void run() {
+                    mRemoveQueued.set(false);
+                    removeInvalidated();
+                }
+
+                @Override
+                void onDropped() {
+                    // The next request removes them before it reads a store
+                    mRemoveQueued.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Remove the stored results of invalidated items, on a worker thread
+     */
+    private void removeInvalidated() {
+        final Invalidation[] invalidations;
+        synchronized (mInvalidations) {
+            if (mInvalidations.isEmpty()) {
+                return;
+            }
+            invalidations = mInvalidations.toArray(
+                new Invalidation[mInvalidations.size()]);
+            mInvalidations.clear();
+        }
+
+        for (Invalidation invalidation : invalidations) {
+            invalidation.store.removeAll(invalidation.prefix);
+        }
+    }
+
+    /**
+     * Forget pending requests, their results will be thrown away.
+     */
+    void clear() {
+        for (int kind = 0; kind <= LOD_LEVELS; kind++) {
+            mPending.get(kind).clear();
+        }
+        clearFailures();
+    }
+
+    /**
+     * Try again the requests which failed, data set of adapter changed.
+     */
+    void clearFailures() {
+        for (int kind = 0; kind <= LOD_LEVELS; kind++) {
+            mFailed.get(kind).clear();
+        }
+    }
+
+    void release() {
+        if (mWorker != null) {
+            mWorker.shutdown();
+            mWorker = null;
+        }
+        mRemoveQueued.set(false);
+        clear();
+
+        final boolean invalidated;
+        synchronized (mInvalidations) {
+            invalidated = !mInvalidations.isEmpty();
+        }
+        if (invalidated) {
+            // The stores outlive this generator
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    removeInvalidated();
+                }
+            }, "CoverFlowGenerator release").start();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Persistent store of generated bitmaps, reflections, levels of detail and
+ * downsampled covers, so they survive the process. Names start with the
+ * item id and hold everything the pixels depend on. Implementations must be
+ * thread safe, they are used from background threads. {@link CoverFlowView}
+ * and {@link DecodingCoverFlowAdapter} never call them on the UI thread, so
+ * they may block on disk I/O.
+ *
+ * @see DiskCoverCache
+ * @see MappedCoverStore
+ */
+public interface CoverStore {
+
+    /**
+     * @param pool pool to take the bitmap from if the store supports it,
+     *             may be null
+     * @return the bitmap stored under name, or null
+     */
+    Bitmap get(String name, BitmapPool pool);
+
+    void put(String name, Bitmap bitmap);
+
+    /**
+     * Remove all bitmaps whose name starts with prefix
+     */
+    void removeAll(String prefix);
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Adapter which decodes its images in the background, downsampled to just
+ * above the height covers are drawn at in {@link CoverFlowView}, so full size
+ * images are never held in memory. Subclasses only describe where each image
+ * comes from.
+ */
+public abstract class DecodingCoverFlowAdapter extends AsyncCoverFlowAdapter {
+
+	public interface StreamOpener {
+		/**
+		 * Called twice per decode, once to read the bounds and once to read
+		 * the pixels.
+		 */
+		InputStream open() throws IOException;
+	}
+
+	public static abstract class ImageSource {
+
+		abstract Bitmap decode(BitmapFactory.Options options) throws IOException;
+
+		public static ImageSource fromResource(final Resources res, final int id) {
+			return new ImageSource() {
+				@Override
+				Bitmap decode(BitmapFactory.Options options) {
+					return BitmapFactory.decodeResource(res, id, options);
+				}
+			};
+		}
+
+		public static ImageSource fromFile(final String path) {
+			return new ImageSource() {
+				@Override
+				Bitmap decode(BitmapFactory.Options options) {
+					return BitmapFactory.decodeFile(path, options);
+				}
+			};
+		}
+
+		public static ImageSource fromStream(final StreamOpener opener) {
+			return new ImageSource() {
+				@Override
+				Bitmap decode(BitmapFactory.Options options) throws IOException {
+					final InputStream in = opener.open();
+					try {
+						return BitmapFactory.decodeStream(in, null, options);
+					} finally {
+						in.close();
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Height covers are drawn at when they are in the middle, 0 until the
+	 * view has been measured.
+	 */
+	private volatile int mTargetHeight;
+
+	private volatile CoverStore mCoverStore;
+
+	/**
+	 * Names of stored images of changed items, removed on the loading thread
+	 * before it next reads the store, so notifyItemChanged() does no disk
+	 * I/O on the UI thread. Guarded by itself.
+	 */
+	private final ArrayList<String> mInvalidations = new ArrayList<String>();
+
+	/**
+	 * Called on a background thread.
+	 */
+	public abstract ImageSource getImageSource(int position);
+
+	public int getTargetHeight() {
+		return mTargetHeight;
+	}
+
+	/**
+	 * Keep downsampled images in store, so they are decoded from the source
+	 * only once per target height. Only used with stable ids, which must
+	 * name the same image across restarts. May be the store passed to
+	 * {@link CoverFlowView#setCoverStore(CoverStore)}.
+	 */
+	public void setCoverStore(CoverStore store) {
+		mCoverStore = store;
+	}
+
+	public CoverStore getCoverStore() {
+		return mCoverStore;
+	}
+
+	@Override
+	public void notifyItemChanged(int position) {
+		final CoverStore store = mCoverStore;
+		if (store != null && hasStableIds()) {
+			// Reflections and levels of detail are removed by the view
+			synchronized (mInvalidations) {
+				mInvalidations.add(CoverGenerator.storePrefixOf(getItemId(position)) + "image_");
+			}
+		}
+		super.notifyItemChanged(position);
+	}
+
+	/**
+	 * Remove the stored images of changed items, on a background thread
+	 */
+	private void removeInvalidated(CoverStore store) {
+		final String[] prefixes;
+		synchronized (mInvalidations) {
+			if (mInvalidations.isEmpty()) {
+				return;
+			}
+			prefixes = mInvalidations.toArray(new String[mInvalidations.size()]);
+			mInvalidations.clear();
+		}
+
+		for (String prefix : prefixes) {
+			store.removeAll(prefix);
+		}
+	}
+
+	/**
+	 * @return true if images decoded before are now too small, or were
+	 * decoded in full size before the first measure
+	 */
+	boolean setTargetHeight(int targetHeight) {
+		final int oldHeight = mTargetHeight;
+		mTargetHeight = targetHeight;
+		return targetHeight > oldHeight;
+	}
+
+	@Override
+	public void loadImage(int position, ImageCallback callback) {
+		final int targetHeight = mTargetHeight;
+		// Full size images are only decoded until the first measure, do not
+		// keep them
+		final CoverStore store = hasStableIds() && targetHeight > 0
+			? mCoverStore : null;
+		final String storeName = store != null
+			? CoverGenerator.storePrefixOf(getItemId(position)) + "image_" + targetHeight
+			: null;
+
+		if (store != null) {
+			removeInvalidated(store);
+		}
+		Bitmap image = store != null ? store.get(storeName, null) : null;
+		if (image != null) {
+			callback.onImageLoaded(position, image);
+			return;
+		}
+
+		try {
+			final ImageSource source = getImageSource(position);
+			if (source != null) {
+				image = decode(source, targetHeight);
+			}
+			if (image != null && store != null) {
+				store.put(storeName, image);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (OutOfMemoryError e) {
+			e.printStackTrace();
+		}
+
+		callback.onImageLoaded(position, image);
+	}
+
+	/**
+	 * Decode source so that its height is at least targetHeight, but not
+	 * larger than needed. A targetHeight of 0 decodes in full size. The
+	 * result has no density, canvases draw it at its pixel size.
+	 */
+	public static Bitmap decode(ImageSource source, int targetHeight) throws IOException {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		if (targetHeight <= 0) {
+			return source.decode(options);
+		}
+
+		// Bounds of the raw pixels, without resource density scaling
+		options.inJustDecodeBounds = true;
+		options.inScaled = false;
+		source.decode(options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+
+		int sampleSize = 1;
+		while (options.outHeight / (sampleSize << 1) >= targetHeight) {
+			sampleSize <<= 1;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+
+		// Sampling only goes in powers of two, scale the rest of the way
+		// down while decoding
+		final int sampledHeight = options.outHeight / sampleSize;
+		if (sampledHeight > targetHeight) {
+			options.inScaled = true;
+			options.inDensity = sampledHeight;
+			options.inTargetDensity = targetHeight;
+		}
+
+		final Bitmap bitmap = source.decode(options);
+		if (bitmap != null) {
+			// Density is the target height now, or the density of the
+			// resource, either would scale the bitmap on canvases of
+			// another density
+			bitmap.setDensity(Bitmap.DENSITY_NONE);
+		}
+		return bitmap;
+	}
+}
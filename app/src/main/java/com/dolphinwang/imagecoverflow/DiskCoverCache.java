@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Size bounded {@link CoverStore} of PNG files, so reflections, levels of
+ * detail and downsampled covers survive the process. Entries are PNG files,
+ * least recently used ones are deleted to stay inside the byte budget. A
+ * journal of writes, reads and removals keeps the order across restarts.
+ * <p>
+ * Entries are keyed by item id, so it is only used for adapters with stable
+ * ids, and ids must keep naming the same image across restarts. Call
+ * {@link CoverFlowAdapter#notifyItemChanged(int)} when an image changes.
+ * <p>
+ * Thread safe. All methods may do disk I/O, the journal is read on first use.
+ * PNGs are encoded and decoded outside the lock, so threads only wait for
+ * each other while the index and journal change.
+ */
+public class DiskCoverCache implements CoverStore {
+
+    private static final String TAG = "DiskCoverCache";
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String MAGIC = "coverflow.DiskCoverCache.1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * Journal is rewritten once it holds this many lines which do not
+     * describe an entry any more
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static final String DEFAULT_DIRECTORY = "coverflow";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    /**
+     * Entry sizes in bytes, least recently used first
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(
+        0, 0.75f, true);
+
+    private long mSize;
+    private int mRedundantOpCount;
+
+    private Writer mJournalWriter;
+    private boolean mOpened;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Makes temporary file names of concurrent writes unique
+     */
+    private final AtomicInteger mTmpCount = new AtomicInteger();
+
+    public DiskCoverCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Cache in the app cache directory
+     */
+    public DiskCoverCache(Context context, long maxSize) {
+        this(new File(context.getCacheDir(), DEFAULT_DIRECTORY), maxSize);
+    }
+
+    /**
+     * Decodes a new bitmap, pool is not used.
+     */
+    @Override
+    public Bitmap get(String name, BitmapPool pool) {
+        return get(name);
+    }
+
+    /**
+     * @return the bitmap stored under name, or null
+     */
+    public Bitmap get(String name) {
+        final Long size;
+        synchronized (this) {
+            size = open() ? mEntries.get(name) : null;
+            if (size == null) {
+                mMissCount++;
+                return null;
+            }
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Mutable bitmaps can go to the BitmapPool once evicted
+            options.inMutable = true;
+        }
+        final Bitmap bitmap = BitmapFactory.decodeFile(getFile(name).getPath(), options);
+
+        synchronized (this) {
+            if (bitmap == null) {
+                // Deleted or damaged behind our back, unless it was written
+                // again meanwhile
+                if (size.equals(mEntries.get(name))) {
+                    removeEntry(name);
+                }
+                mMissCount++;
+                return null;
+            }
+
+            mHitCount++;
+            if (mEntries.get(name) != null) {
+                appendJournal(READ, name);
+            }
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void put(String name, Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        synchronized (this) {
+            // Opening deletes unknown files, which must not be ours
+            if (!open()) {
+                return;
+            }
+        }
+
+        final File tmp = new File(mDirectory, name + "." + mTmpCount.incrementAndGet()
+            + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("compress failed");
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + name, e);
+            closeQuietly(out);
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            final File file = getFile(name);
+            if (!open() || !tmp.renameTo(file)) {
+                Log.w(TAG, "failed to write " + name + ", rename failed");
+                tmp.delete();
+                return;
+            }
+
+            final Long oldSize = mEntries.put(name, file.length());
+            if (oldSize != null) {
+                mSize -= oldSize;
+                mRedundantOpCount++;
+            }
+            mSize += file.length();
+            appendJournal(CLEAN, name + " " + file.length());
+
+            trimToSize();
+        }
+    }
+
+    public synchronized void remove(String name) {
+        if (open() && mEntries.containsKey(name)) {
+            removeEntry(name);
+        }
+    }
+
+    /**
+     * Remove all entries whose name starts with prefix
+     */
+    @Override
+    public synchronized void removeAll(String prefix) {
+        if (!open()) {
+            return;
+        }
+
+        final ArrayList<String> names = new ArrayList<String>();
+        for (String name : mEntries.keySet()) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        for (int i = 0; i < names.size(); ++i) {
+            removeEntry(names.get(i));
+        }
+    }
+
+    public synchronized void clear() {
+        if (!open()) {
+            return;
+        }
+
+        for (String name : mEntries.keySet()) {
+            getFile(name).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+        rebuildJournal();
+    }
+
+    /**
+     * Flush and close the journal, the cache opens again on next use.
+     */
+    public synchronized void close() {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+        mEntries.clear();
+        mSize = 0;
+        mOpened = false;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return bytes held on disk
+     */
+    public synchronized long getSize() {
+        open();
+        return mSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final int accesses = mHitCount + mMissCount;
+        final int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return "DiskCoverCache[size=" + mSize + ",maxSize=" + mMaxSize + ",hits="
+            + mHitCount + ",misses=" + mMissCount + ",hitRate=" + hitPercent + "%]";
+    }
+
+    /**
+     * Read the journal and drop files it does not know about.
+     *
+     * @return false if the cache can not be used
+     */
+    private boolean open() {
+        if (mOpened) {
+            return mJournalWriter != null;
+        }
+        mOpened = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "can not create " + mDirectory);
+            return false;
+        }
+
+        final File journal = new File(mDirectory, JOURNAL);
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+            } catch (IOException e) {
+                Log.w(TAG, "journal is corrupt, starting over", e);
+                mEntries.clear();
+                mSize = 0;
+            }
+        }
+
+        // Files of interrupted writes and entries the journal lost
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (!name.equals(JOURNAL) && !mEntries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        rebuildJournal();
+        trimToSize();
+        return mJournalWriter != null;
+    }
+
+    private void readJournal(File journal) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(journal));
+        try {
+            if (!MAGIC.equals(reader.readLine())) {
+                throw new IOException("unexpected journal header");
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // Last line of a crashed write
+                    continue;
+                }
+
+                final String name = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 3) {
+                    final Long oldSize = mEntries.put(name, Long.parseLong(parts[2]));
+                    if (oldSize != null) {
+                        mSize -= oldSize;
+                    }
+                    mSize += Long.parseLong(parts[2]);
+                } else if (READ.equals(parts[0])) {
+                    mEntries.get(name);
+                } else if (REMOVE.equals(parts[0])) {
+                    final Long oldSize = mEntries.remove(name);
+                    if (oldSize != null) {
+                        mSize -= oldSize;
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected journal line");
+        } finally {
+            reader.close();
+        }
+
+        // Files may have been deleted while the process was not running
+        final Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            if (!getFile(entry.getKey()).exists()) {
+                mSize -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Write a journal holding only the current entries, in access order.
+     */
+    private void rebuildJournal() {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+
+        final File tmp = new File(mDirectory, JOURNAL_TMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmp));
+            writer.write(MAGIC);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+
+            if (!tmp.renameTo(new File(mDirectory, JOURNAL))) {
+                throw new IOException("rename failed");
+            }
+
+            mJournalWriter = new BufferedWriter(new FileWriter(
+                new File(mDirectory, JOURNAL), true));
+            mRedundantOpCount = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write journal", e);
+            closeQuietly(writer);
+        }
+    }
+
+    private void appendJournal(String op, String args) {
+        if (mJournalWriter == null) {
+            return;
+        }
+
+        try {
+            mJournalWriter.write(op + " " + args + "\n");
+            mJournalWriter.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to append to journal", e);
+        }
+
+        if (!CLEAN.equals(op)) {
+            mRedundantOpCount++;
+        }
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+            && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void removeEntry(String name) {
+        final Long size = mEntries.remove(name);
+        if (size != null) {
+            mSize -= size;
+        }
+        getFile(name).delete();
+        appendJournal(REMOVE, name);
+    }
+
+    private void trimToSize() {
+        while (mSize > mMaxSize && !mEntries.isEmpty()) {
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    private File getFile(String name) {
+        return new File(mDirectory, name);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
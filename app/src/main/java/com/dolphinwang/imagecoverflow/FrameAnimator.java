@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Calls back once per display frame while an animation runs, with the time
+ * of the frame, so each frame computes exactly one state from it. On Jelly
+ * Bean and later frames come from {@link Choreographer} with their vsync
+ * time, before that from the message queue with the current time. Must be
+ * used on the UI thread.
+ */
+class FrameAnimator {
+
+    interface Callback {
+        /**
+         * @param frameTimeNanos time of the frame in the
+         *                       {@link System#nanoTime()} time base
+         * @return false once the animation is over
+         */
+        boolean onAnimationFrame(long frameTimeNanos);
+    }
+
+    /**
+     * Delay between frames without Choreographer, the frame delay of
+     * ValueAnimator on those releases
+     */
+    private static final long FALLBACK_FRAME_DELAY = 10;
+
+    private final Callback mCallback;
+    private final FrameSource mFrameSource;
+
+    private boolean mRunning;
+
+    FrameAnimator(Callback callback) {
+        mCallback = callback;
+        mFrameSource = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+            ? new ChoreographerFrameSource() : new HandlerFrameSource();
+    }
+
+    /**
+     * Call back from the next frame on, until stopped or the callback
+     * returns false.
+     */
+    void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mFrameSource.postFrame();
+        }
+    }
+
+    void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mFrameSource.removeFrame();
+        }
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+
+        if (mCallback.onAnimationFrame(frameTimeNanos) && mRunning) {
+            mFrameSource.postFrame();
+        } else {
+            mRunning = false;
+        }
+    }
+
+    private interface FrameSource {
+        void postFrame();
+
+        void removeFrame();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerFrameSource implements FrameSource,
+        Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        @Override
+        public void postFrame() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void removeFrame() {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            FrameAnimator.this.doFrame(frameTimeNanos);
+        }
+    }
+
+    private class HandlerFrameSource implements FrameSource, Runnable {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void postFrame() {
+            mHandler.postDelayed(this, FALLBACK_FRAME_DELAY);
+        }
+
+        @Override
+        public void removeFrame() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            doFrame(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.graphics.BitmapCompat;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+/**
+ * Loads images of an {@link AsyncCoverFlowAdapter} on a bounded worker pool
+ * and keeps them in memory. All methods must be called on the UI thread.
+ */
+class ImageLoader {
+
+    interface Callback {
+        /**
+         * Called on the UI thread when an image has been loaded.
+         */
+        void onImageLoaded(int position, Bitmap image);
+    }
+
+    private static final String TAG = "ImageLoader";
+
+    private static final int THREAD_COUNT = 2;
+    private static final int QUEUE_CAPACITY = 16;
+
+    private static final int STATE_FAILED = -1;
+
+    private final AsyncCoverFlowAdapter mAdapter;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Bounded by mCacheSize instead of its own max size, so the budget can
+     * change at runtime.
+     */
+    private final LongLruCache<Bitmap> mImageCache;
+    private int mCacheSize;
+    /**
+     * Images kept whatever the budget, the ones on screen are the most
+     * recently used. Dropping them would load them again right away.
+     */
+    private int mMinCount;
+
+    /**
+     * Id of the pending request of a position, or STATE_FAILED. A result is
+     * only accepted if its request is still the pending one for its position.
+     */
+    private final SparseIntArray mStates = new SparseIntArray();
+
+    private WorkerPool mWorkers;
+
+    private int mLastRequestId;
+
+    ImageLoader(AsyncCoverFlowAdapter adapter, Callback callback, int cacheSize) {
+        mAdapter = adapter;
+        mCallback = callback;
+        mCacheSize = cacheSize;
+        mImageCache = new LongLruCache<Bitmap>(Integer.MAX_VALUE) {
+            @Override
+            protected int sizeOf(long key, Bitmap bitmap) {
+                return BitmapCompat.getAllocationByteCount(bitmap);
+            }
+        };
+    }
+
+    /**
+     * @return loaded image of position, or null if it is not loaded yet, in
+     * which case a load is requested.
+     */
+    Bitmap getImage(int position) {
+        final Bitmap image = mImageCache.get(position);
+        if (image != null && !image.isRecycled()) {
+            return image;
+        }
+
+        if (image != null) {
+            // recycled by the adapter, load it again
+            mImageCache.remove(position);
+        }
+        request(position);
+        return null;
+    }
+
+    void request(final int position) {
+        if (mStates.get(position) != 0 || mImageCache.containsKey(position)) {
+            return;
+        }
+
+        if (mWorkers == null) {
+            mWorkers = new WorkerPool("CoverFlowImageLoader", THREAD_COUNT,
+                QUEUE_CAPACITY);
+        }
+
+        if (++mLastRequestId <= 0) {
+            mLastRequestId = 1;
+        }
+        final int requestId = mLastRequestId;
+        mStates.put(position, requestId);
+
+        mWorkers.execute(new WorkerPool.Task() {
+            @Override
+            public void run() {
+                boolean called = false;
+                try {
+                    mAdapter.loadImage(position, new AsyncCoverFlowAdapter.ImageCallback() {
+                        @Override
+                        public void onImageLoaded(int loadedPosition, Bitmap image) {
+                            post(requestId, position, image);
+                        }
+                    });
+                    called = true;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "failed to load image " + position, e);
+                } finally {
+                    if (!called) {
+                        // The callback may never come, do not leave the
+                        // position loading forever
+                        post(requestId, position, null);
+                    }
+                }
+            }
+
+            @Override
+            void onDropped() {
+                if (mStates.get(position) == requestId) {
+                    mStates.delete(position);
+                }
+            }
+        });
+    }
+
+    private void post(final int requestId, final int position, final Bitmap image) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(requestId, position, image);
+            }
+        });
+    }
+
+    private void deliver(int requestId, int position, Bitmap image) {
+        if (mStates.get(position) != requestId) {
+            return;
+        }
+
+        if (image == null || image.isRecycled()) {
+            mStates.put(position, STATE_FAILED);
+            return;
+        }
+
+        mStates.delete(position);
+        mImageCache.put(position, image);
+        mImageCache.trimToSize(mCacheSize, mMinCount);
+        mCallback.onImageLoaded(position, image);
+    }
+
+    /**
+     * Forget every loaded image, called when data set of adapter changed.
+     */
+    void clear() {
+        mStates.clear();
+        mImageCache.evictAll();
+    }
+
+    /**
+     * Forget the image of position, it is loaded again on next request.
+     */
+    void invalidate(int position) {
+        mStates.delete(position);
+        mImageCache.remove(position);
+    }
+
+    /**
+     * Change the byte budget, images are dropped right away if it shrank.
+     */
+    void setCacheSize(int cacheSize) {
+        mCacheSize = cacheSize;
+        mImageCache.trimToSize(cacheSize, mMinCount);
+    }
+
+    /**
+     * Keep at least the count most recently used images, even beyond the
+     * byte budget.
+     */
+    void setMinCount(int count) {
+        mMinCount = count;
+    }
+
+    /**
+     * Stop the workers, they are created again on next request.
+     */
+    void release() {
+        if (mWorkers != null) {
+            mWorkers.shutdown();
+            mWorkers = null;
+        }
+        mStates.clear();
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+/**
+ * LRU cache with primitive long keys, used on the draw path where
+ * {@link android.support.v4.util.LruCache} boxed every key and took a lock
+ * per lookup. A key may carry an int tag, entries of the same key with
+ * different tags are distinct. Entries live in parallel arrays linked into
+ * a recency list by index, and are found through an open addressing table
+ * with linear probing. Nothing is allocated once the arrays have grown to
+ * the working set.
+ * <p>
+ * Like LruCache, sizes come from {@link #sizeOf} and removals are reported
+ * to {@link #entryRemoved}. Not thread safe.
+ */
+class LongLruCache<V> {
+
+    private static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] mKeys;
+    private int[] mTags;
+    private Object[] mValues;
+    private int[] mSizes;
+
+    /**
+     * Recency list, mHead is the least recently used entry. Free entries
+     * are chained through mNext from mFree.
+     */
+    private int[] mPrev;
+    private int[] mNext;
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mFree = NONE;
+
+    /**
+     * Entries ever handed out, entries below are in use or free
+     */
+    private int mUsed;
+
+    /**
+     * Entry index + 1 per hash slot, 0 for an empty slot. Never more than
+     * half full.
+     */
+    private int[] mTable;
+
+    private int mCount;
+    private int mSize;
+    private int mMaxSize;
+
+    private int mPutCount;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    LongLruCache(int maxSize) {
+        mMaxSize = maxSize;
+
+        mKeys = new long[INITIAL_CAPACITY];
+        mTags = new int[INITIAL_CAPACITY];
+        mValues = new Object[INITIAL_CAPACITY];
+        mSizes = new int[INITIAL_CAPACITY];
+        mPrev = new int[INITIAL_CAPACITY];
+        mNext = new int[INITIAL_CAPACITY];
+        mTable = new int[INITIAL_CAPACITY * 2];
+    }
+
+    final V get(long key) {
+        return get(key, 0);
+    }
+
+    /**
+     * @return value of key and tag, now the most recently used, or null
+     */
+    @SuppressWarnings("unchecked")
+    final V get(long key, int tag) {
+        final int slot = find(key, tag);
+        if (slot < 0) {
+            mMissCount++;
+            return null;
+        }
+
+        final int entry = mTable[slot] - 1;
+        moveToTail(entry);
+        mHitCount++;
+        return (V) mValues[entry];
+    }
+
+    final boolean containsKey(long key) {
+        return containsKey(key, 0);
+    }
+
+    final boolean containsKey(long key, int tag) {
+        return find(key, tag) >= 0;
+    }
+
+    final V put(long key, V value) {
+        return put(key, 0, value);
+    }
+
+    /**
+     * Insert value as the most recently used, then evict until the cache
+     * fits maxSize.
+     *
+     * @return previous value of key and tag, or null
+     */
+    @SuppressWarnings("unchecked")
+    final V put(long key, int tag, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        mPutCount++;
+        final int size = sizeOf(key, value);
+
+        V previous = null;
+        final int slot = find(key, tag);
+        if (slot >= 0) {
+            final int entry = mTable[slot] - 1;
+            previous = (V) mValues[entry];
+            mSize += size - mSizes[entry];
+            mValues[entry] = value;
+            mSizes[entry] = size;
+            moveToTail(entry);
+        } else {
+            final int entry = obtainEntry();
+            mKeys[entry] = key;
+            mTags[entry] = tag;
+            mValues[entry] = value;
+            mSizes[entry] = size;
+            linkLast(entry);
+            mSize += size;
+            mCount++;
+
+            if (mCount * 2 > mTable.length) {
+                rehash(mTable.length * 2);
+            } else {
+                mTable[-slot - 1] = entry + 1;
+            }
+        }
+
+        if (previous != null && previous != value) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    final V remove(long key) {
+        return remove(key, 0);
+    }
+
+    /**
+     * @return removed value of key and tag, or null
+     */
+    final V remove(long key, int tag) {
+        final int slot = find(key, tag);
+        if (slot < 0) {
+            return null;
+        }
+
+        final V value = removeAt(slot);
+        entryRemoved(false, key, value, null);
+        return value;
+    }
+
+    /**
+     * Evict least recently used entries until the cache is not larger than
+     * maxSize.
+     */
+    final void trimToSize(int maxSize) {
+        trimToSize(maxSize, 0);
+    }
+
+    /**
+     * Evict least recently used entries until the cache is not larger than
+     * maxSize, but keep at least the minCount most recently used ones.
+     */
+    final void trimToSize(int maxSize, int minCount) {
+        while (mSize > maxSize && mCount > minCount) {
+            final long key = mKeys[mHead];
+            final V value = removeAt(find(key, mTags[mHead]));
+            mEvictionCount++;
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    final void evictAll() {
+        while (mHead != NONE) {
+            final long key = mKeys[mHead];
+            final V value = removeAt(find(key, mTags[mHead]));
+            mEvictionCount++;
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    final int size() {
+        return mSize;
+    }
+
+    final int maxSize() {
+        return mMaxSize;
+    }
+
+    final int count() {
+        return mCount;
+    }
+
+    final int hitCount() {
+        return mHitCount;
+    }
+
+    final int missCount() {
+        return mMissCount;
+    }
+
+    final int putCount() {
+        return mPutCount;
+    }
+
+    final int evictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Size of an entry in the units of maxSize, 1 by default.
+     */
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called after an entry was evicted, removed or replaced, the cache does
+     * not refer to oldValue any more.
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    /**
+     * @return hash slot of key and tag, or -(insertion slot) - 1 if they are
+     * absent
+     */
+    private int find(long key, int tag) {
+        final int mask = mTable.length - 1;
+        int slot = hash(key, tag) & mask;
+        while (true) {
+            final int entry = mTable[slot];
+            if (entry == 0) {
+                return -slot - 1;
+            }
+            if (mKeys[entry - 1] == key && mTags[entry - 1] == tag) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeAt(int slot) {
+        final int entry = mTable[slot] - 1;
+        final V value = (V) mValues[entry];
+
+        deleteSlot(slot);
+        unlink(entry);
+        mSize -= mSizes[entry];
+        mCount--;
+
+        mValues[entry] = null;
+        mNext[entry] = mFree;
+        mFree = entry;
+
+        return value;
+    }
+
+    /**
+     * Empty slot and shift later entries of its probe run back, so lookups
+     * never stop early at the hole.
+     */
+    private void deleteSlot(int slot) {
+        final int mask = mTable.length - 1;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            final int entry = mTable[next];
+            if (entry == 0) {
+                break;
+            }
+
+            final int home = hash(mKeys[entry - 1], mTags[entry - 1]) & mask;
+            // Entry stays if its home slot lies cyclically in (hole, next]
+            final boolean stays = hole <= next
+                ? (hole < home && home <= next)
+                : (hole < home || home <= next);
+            if (!stays) {
+                mTable[hole] = entry;
+                hole = next;
+            }
+        }
+        mTable[hole] = 0;
+    }
+
+    private void rehash(int tableLength) {
+        mTable = new int[tableLength];
+        final int mask = tableLength - 1;
+        for (int entry = mHead; entry != NONE; entry = mNext[entry]) {
+            int slot = hash(mKeys[entry], mTags[entry]) & mask;
+            while (mTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mTable[slot] = entry + 1;
+        }
+    }
+
+    private int obtainEntry() {
+        if (mFree != NONE) {
+            final int entry = mFree;
+            mFree = mNext[entry];
+            return entry;
+        }
+
+        if (mUsed == mKeys.length) {
+            // Arrays.copyOf() needs API 9
+            final int capacity = mKeys.length * 2;
+            final long[] keys = new long[capacity];
+            System.arraycopy(mKeys, 0, keys, 0, mUsed);
+            mKeys = keys;
+            mTags = grow(mTags, capacity);
+            final Object[] values = new Object[capacity];
+            System.arraycopy(mValues, 0, values, 0, mUsed);
+            mValues = values;
+            mSizes = grow(mSizes, capacity);
+            mPrev = grow(mPrev, capacity);
+            mNext = grow(mNext, capacity);
+        }
+        return mUsed++;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        final int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private void moveToTail(int entry) {
+        if (entry != mTail) {
+            unlink(entry);
+            linkLast(entry);
+        }
+    }
+
+    private void linkLast(int entry) {
+        mPrev[entry] = mTail;
+        mNext[entry] = NONE;
+        if (mTail != NONE) {
+            mNext[mTail] = entry;
+        } else {
+            mHead = entry;
+        }
+        mTail = entry;
+    }
+
+    private void unlink(int entry) {
+        final int prev = mPrev[entry];
+        final int next = mNext[entry];
+        if (prev != NONE) {
+            mNext[prev] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrev[next] = prev;
+        } else {
+            mTail = prev;
+        }
+    }
+
+    private static int hash(long key, int tag) {
+        key += tag * 0x9e3779b97f4a7c15L;
+        int h = (int) (key ^ (key >>> 32));
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
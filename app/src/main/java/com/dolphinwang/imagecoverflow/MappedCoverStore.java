@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Cover store for large catalogues which keeps decoded, already sized pixels
+ * in a memory mapped {@link PixelStore}. A lookup is a copy of the mapped
+ * bytes into a pooled bitmap, nothing is decoded. The store fills up as
+ * covers are shown; once it reaches its maximum size it is compacted on the
+ * next write and the covers stored first are dropped.
+ * <p>
+ * Takes four bytes per pixel, much more disk than {@link DiskCoverCache},
+ * in exchange for near zero load cost.
+ */
+public class MappedCoverStore implements CoverStore {
+
+    private static final String TAG = "MappedCoverStore";
+
+    private static final String DEFAULT_FILE = "coverflow.pixels";
+
+    private static final Bitmap.Config[] CONFIGS = Bitmap.Config.values();
+
+    private final PixelStore mStore;
+
+    public MappedCoverStore(File file, long maxSize) {
+        mStore = new PixelStore(file, maxSize);
+    }
+
+    /**
+     * Store in the app cache directory
+     */
+    public MappedCoverStore(Context context, long maxSize) {
+        this(new File(context.getCacheDir(), DEFAULT_FILE), maxSize);
+    }
+
+    @Override
+    public Bitmap get(String name, BitmapPool pool) {
+        // Copy while holding the store, so clear() can not truncate the
+        // mapping under us
+        synchronized (mStore) {
+            try {
+                final PixelStore.Entry entry = mStore.get(name);
+                if (entry == null || entry.getFormat() < 0
+                    || entry.getFormat() >= CONFIGS.length) {
+                    return null;
+                }
+
+                final Bitmap.Config config = CONFIGS[entry.getFormat()];
+                Bitmap bitmap = pool != null
+                    ? pool.get(entry.getWidth(), entry.getHeight(), config) : null;
+                if (bitmap == null) {
+                    bitmap = Bitmap.createBitmap(entry.getWidth(), entry.getHeight(), config);
+                }
+
+                final ByteBuffer pixels = entry.getPixels();
+                if (pixels.remaining() != bitmap.getRowBytes() * bitmap.getHeight()) {
+                    // Written by a device with another row layout
+                    if (pool == null || !pool.put(bitmap)) {
+                        bitmap.recycle();
+                    }
+                    return null;
+                }
+                bitmap.copyPixelsFromBuffer(pixels);
+                return bitmap;
+            } catch (IOException e) {
+                Log.w(TAG, "failed to read " + name, e);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void put(String name, Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || bitmap.getConfig() == null) {
+            return;
+        }
+
+        final ByteBuffer pixels = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.flip();
+
+        try {
+            mStore.put(name, bitmap.getWidth(), bitmap.getHeight(),
+                bitmap.getConfig().ordinal(), pixels);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + name, e);
+        }
+    }
+
+    @Override
+    public void removeAll(String prefix) {
+        try {
+            mStore.removeAll(prefix);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to remove " + prefix, e);
+        }
+    }
+
+    /**
+     * Blocks on disk I/O, call it off the UI thread
+     */
+    public void clear() {
+        try {
+            mStore.clear();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to clear", e);
+        }
+    }
+
+    /**
+     * Blocks on disk I/O, call it off the UI thread
+     */
+    public void close() {
+        try {
+            mStore.close();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to close", e);
+        }
+    }
+
+    public PixelStore getPixelStore() {
+        return mStore;
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of raw pixel records, read through a memory mapping so a
+ * lookup hands out the stored bytes without copying or decoding them. The
+ * file grows one record at a time, a record put again or removed leaves
+ * garbage behind. Once the file would grow beyond its maximum size it is
+ * compacted: live records are copied to a new file, the oldest ones dropped
+ * until three quarters of the maximum size are in use. A record cut short
+ * by a crash is dropped on open.
+ * <p>
+ * The file is mapped in chunks of fixed size, so a growing store never maps
+ * more than one chunk again and large stores fit the address space of 32
+ * bit devices. Pixels of a record never cross a chunk boundary, padding
+ * records fill the gap. Pixels larger than a chunk are mapped per lookup.
+ * <p>
+ * Plain Java without Android classes, pixel formats are opaque ints. Thread
+ * safe. The file may not grow beyond 2GB.
+ */
+public class PixelStore {
+
+    /**
+     * Stored pixels of one record
+     */
+    public static final class Entry {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFormat;
+        private final ByteBuffer mPixels;
+
+        Entry(int width, int height, int format, ByteBuffer pixels) {
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+            mPixels = pixels;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getFormat() {
+            return mFormat;
+        }
+
+        /**
+         * Read only view of the mapped pixels, valid until the store is
+         * written to, cleared or closed.
+         */
+        public ByteBuffer getPixels() {
+            return mPixels;
+        }
+    }
+
+    private static final class Record {
+        final int width;
+        final int height;
+        final int format;
+        final long offset;
+        final int length;
+        /**
+         * Bytes of the record in the file, without padding before it
+         */
+        final int size;
+
+        Record(int width, int height, int format, long offset, int length, int size) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+
+    private static final Comparator<Map.Entry<String, Record>> FILE_ORDER =
+        new Comparator<Map.Entry<String, Record>>() {
+            @Override
+            public int compare(Map.Entry<String, Record> a, Map.Entry<String, Record> b) {
+                return a.getValue().offset < b.getValue().offset ? -1
+                    : (a.getValue().offset == b.getValue().offset ? 0 : 1);
+            }
+        };
+
+    private static final int MAGIC = 0x43465053; // "CFPS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Name length, width, height, format and pixel length of a record,
+     * the name follows the length
+     */
+    private static final int RECORD_HEADER_SIZE = 2 + 4 * 4;
+
+    private static final int REMOVED = -1;
+
+    /**
+     * Name of padding records, which are not records of the store
+     */
+    private static final String PADDING = "";
+
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Part of the maximum size live records may fill after compaction, the
+     * rest is left for new records so compaction is rare
+     */
+    private static final float COMPACT_FILL = 0.75f;
+
+    // String(byte[], Charset) and String.getBytes(Charset) need API 9
+    private static final String UTF_8 = "UTF-8";
+
+    private final File mFile;
+    private final long mMaxSize;
+    private final int mChunkSize;
+
+    /**
+     * Mapping of each chunk, null until used. The last one may be shorter
+     * than mChunkSize and is mapped again once records are appended to it.
+     */
+    private final ArrayList<MappedByteBuffer> mChunks = new ArrayList<MappedByteBuffer>();
+
+    private final HashMap<String, Record> mRecords = new HashMap<String, Record>();
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mSize;
+
+    /**
+     * Bytes of the records in mRecords, the rest of mSize is garbage
+     */
+    private long mLiveSize;
+
+    public PixelStore(File file, long maxSize) {
+        this(file, maxSize, DEFAULT_CHUNK_SIZE);
+    }
+
+    PixelStore(File file, long maxSize, int chunkSize) {
+        mFile = file;
+        mMaxSize = Math.min(maxSize, Integer.MAX_VALUE);
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * @return the record stored under name, or null
+     */
+    public synchronized Entry get(String name) throws IOException {
+        open();
+
+        final Record record = mRecords.get(name);
+        if (record == null) {
+            return null;
+        }
+
+        final ByteBuffer pixels;
+        if (record.length > mChunkSize) {
+            pixels = mChannel.map(FileChannel.MapMode.READ_ONLY, record.offset,
+                record.length);
+        } else {
+            final int chunk = (int) (record.offset / mChunkSize);
+            final long chunkStart = (long) chunk * mChunkSize;
+            pixels = mapChunk(chunk, record.offset + record.length - chunkStart)
+                .duplicate();
+            pixels.position((int) (record.offset - chunkStart));
+            pixels.limit((int) (record.offset + record.length - chunkStart));
+        }
+
+        return new Entry(record.width, record.height, record.format,
+            pixels.slice().asReadOnlyBuffer());
+    }
+
+    /**
+     * Append pixels between position and limit of pixels under name.
+     *
+     * @return false if the store is full
+     */
+    public synchronized boolean put(String name, int width, int height, int format,
+                                    ByteBuffer pixels) throws IOException {
+        if (PADDING.equals(name)) {
+            throw new IllegalArgumentException("name must not be empty");
+        }
+        open();
+
+        final int length = pixels.remaining();
+        final int nameLength = name.getBytes(UTF_8).length;
+        final int size = RECORD_HEADER_SIZE + nameLength + length;
+        if (nameLength > 0xffff || HEADER_SIZE + (long) size > mMaxSize) {
+            return false;
+        }
+
+        long offset = append(name, width, height, format, length, pixels);
+        if (offset < 0) {
+            // The old record of name is garbage once it is replaced
+            forget(name);
+            compact(nameLength, length);
+            offset = append(name, width, height, format, length, pixels);
+            if (offset < 0) {
+                return false;
+            }
+        }
+
+        forget(name);
+        mRecords.put(name, new Record(width, height, format, offset, length, size));
+        mLiveSize += size;
+        return true;
+    }
+
+    public synchronized void remove(String name) throws IOException {
+        open();
+
+        if (forget(name) && append(name, 0, 0, 0, REMOVED, null) < 0) {
+            // No room for the removal record, a compacted file does not
+            // hold the record anyway
+            compact(0, REMOVED);
+        }
+    }
+
+    /**
+     * Remove all records whose name starts with prefix
+     */
+    public synchronized void removeAll(String prefix) throws IOException {
+        open();
+
+        final ArrayList<String> names = new ArrayList<String>();
+        for (String name : mRecords.keySet()) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        for (int i = 0; i < names.size(); ++i) {
+            remove(names.get(i));
+        }
+    }
+
+    /**
+     * Drop all records and the garbage they left.
+     */
+    public synchronized void clear() throws IOException {
+        open();
+
+        mRecords.clear();
+        mChunks.clear();
+        mChannel.truncate(HEADER_SIZE);
+        mSize = HEADER_SIZE;
+        mLiveSize = 0;
+    }
+
+    public synchronized void close() throws IOException {
+        mRecords.clear();
+        mChunks.clear();
+        mChannel = null;
+        if (mRandomAccessFile != null) {
+            mRandomAccessFile.close();
+            mRandomAccessFile = null;
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return bytes of the file, including garbage
+     */
+    public synchronized long getSize() throws IOException {
+        open();
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() throws IOException {
+        open();
+        return mRecords.size();
+    }
+
+    /**
+     * Open the file and read the record index, on first use.
+     */
+    private void open() throws IOException {
+        if (mChannel != null) {
+            return;
+        }
+
+        final File parent = mFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can not create " + parent);
+        }
+
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mLiveSize = 0;
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (mChannel.size() < HEADER_SIZE || !readFully(header, 0)
+            || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            // New or unknown file, start over
+            header.clear();
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            mChannel.truncate(0);
+            mChannel.write(header, 0);
+            mSize = HEADER_SIZE;
+            return;
+        }
+
+        mSize = scanRecords();
+        if (mSize < mChannel.size()) {
+            // Torn write of the last record
+            mChannel.truncate(mSize);
+        }
+
+        // Written with a larger maximum size
+        if (mSize > mMaxSize) {
+            compact(0, REMOVED);
+        }
+    }
+
+    /**
+     * Build the index from the file.
+     *
+     * @return end of the last complete record
+     */
+    private long scanRecords() throws IOException {
+        final long fileSize = mChannel.size();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = HEADER_SIZE;
+
+        while (position + RECORD_HEADER_SIZE <= fileSize) {
+            header.clear();
+            if (!readFully(header, position)) {
+                break;
+            }
+
+            final int nameLength = header.getShort(0) & 0xffff;
+            final int width = header.getInt(2);
+            final int height = header.getInt(6);
+            final int format = header.getInt(10);
+            final int length = header.getInt(14);
+
+            final long nameOffset = position + RECORD_HEADER_SIZE;
+            final long pixelOffset = nameOffset + nameLength;
+            final long end = pixelOffset + Math.max(0, length);
+            if (length < REMOVED || end > fileSize) {
+                break;
+            }
+
+            final ByteBuffer nameBytes = ByteBuffer.allocate(nameLength);
+            if (!readFully(nameBytes, nameOffset)) {
+                break;
+            }
+            final String name = new String(nameBytes.array(), UTF_8);
+
+            if (PADDING.equals(name)) {
+                // Keeps the next pixels inside one chunk
+            } else if (length == REMOVED) {
+                forget(name);
+            } else {
+                forget(name);
+                final int size = RECORD_HEADER_SIZE + nameLength + length;
+                mRecords.put(name, new Record(width, height, format, pixelOffset, length,
+                    size));
+                mLiveSize += size;
+            }
+            position = end;
+        }
+
+        return position;
+    }
+
+    /**
+     * @return mapping of chunk holding at least its first minLength bytes
+     */
+    private MappedByteBuffer mapChunk(int chunk, long minLength) throws IOException {
+        while (mChunks.size() <= chunk) {
+            mChunks.add(null);
+        }
+
+        MappedByteBuffer mapped = mChunks.get(chunk);
+        if (mapped == null || mapped.limit() < minLength) {
+            // First use, or records were appended to the last chunk
+            final long chunkStart = (long) chunk * mChunkSize;
+            mapped = mChannel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+                Math.min(mChunkSize, mSize - chunkStart));
+            mChunks.set(chunk, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * @return offset of the pixels in the file, or -1 if there is no room
+     */
+    private long append(String name, int width, int height, int format, int length,
+                        ByteBuffer pixels) throws IOException {
+        return append(name, width, height, format, length, pixels, null, 0);
+    }
+
+    /**
+     * Append a record whose pixels are either between position and limit of
+     * pixels, or length bytes of source from sourceOffset on.
+     *
+     * @return offset of the pixels in the file, or -1 if there is no room
+     */
+    private long append(String name, int width, int height, int format, int length,
+                        ByteBuffer pixels, FileChannel source, long sourceOffset)
+        throws IOException {
+        final byte[] nameBytes = name.getBytes(UTF_8);
+        if (nameBytes.length > 0xffff) {
+            return -1;
+        }
+
+        final long padding = paddingBefore(mSize, nameBytes.length, length);
+        final long pixelOffset = mSize + padding + RECORD_HEADER_SIZE + nameBytes.length;
+        final long end = pixelOffset + Math.max(0, length);
+        // Removal records count as well, or removing would grow the file
+        // without bound
+        if (end > mMaxSize) {
+            return -1;
+        }
+
+        if (padding > 0) {
+            appendRecord(PADDING.getBytes(UTF_8), 0, 0, 0,
+                (int) (padding - RECORD_HEADER_SIZE), null, null, 0);
+        }
+        appendRecord(nameBytes, width, height, format, length, pixels, source,
+            sourceOffset);
+        return pixelOffset;
+    }
+
+    /**
+     * @return bytes of the padding record needed before a record written at
+     * position so its pixels do not cross a chunk boundary, 0 if none is
+     * needed
+     */
+    private long paddingBefore(long position, int nameLength, int length) {
+        final long pixelOffset = position + RECORD_HEADER_SIZE + nameLength;
+        if (length <= 0 || length > mChunkSize
+            || pixelOffset / mChunkSize == (pixelOffset + length - 1) / mChunkSize) {
+            return 0;
+        }
+
+        // Pixels start at the next chunk, or the one after if the padding
+        // record does not fit before
+        long chunkStart = (pixelOffset / mChunkSize + 1) * mChunkSize;
+        while (chunkStart - nameLength - RECORD_HEADER_SIZE - position < RECORD_HEADER_SIZE) {
+            chunkStart += mChunkSize;
+        }
+        return chunkStart - nameLength - RECORD_HEADER_SIZE - position;
+    }
+
+    /**
+     * @return end of a record written at position, with its padding
+     */
+    private long endOf(long position, int nameLength, int length) {
+        return position + paddingBefore(position, nameLength, length) + RECORD_HEADER_SIZE
+            + nameLength + Math.max(0, length);
+    }
+
+    /**
+     * Write a record at the end of the file.
+     */
+    private void appendRecord(byte[] nameBytes, int width, int height, int format,
+                              int length, ByteBuffer pixels, FileChannel source,
+                              long sourceOffset) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + nameBytes.length);
+        header.putShort((short) nameBytes.length).putInt(width).putInt(height)
+            .putInt(format).putInt(length).put(nameBytes).flip();
+
+        long position = mSize;
+        while (header.hasRemaining()) {
+            position += mChannel.write(header, position);
+        }
+        if (pixels != null) {
+            final ByteBuffer src = pixels.duplicate();
+            while (src.hasRemaining()) {
+                position += mChannel.write(src, position);
+            }
+        } else if (source != null) {
+            // Copied by the kernel where it can, without mapping the source
+            mChannel.position(position);
+            long copied = 0;
+            while (copied < length) {
+                final long transferred = source.transferTo(sourceOffset + copied,
+                    length - copied, mChannel);
+                if (transferred <= 0) {
+                    throw new IOException("can not copy from " + mFile);
+                }
+                copied += transferred;
+            }
+        } else if (length > 0) {
+            // Padding, only its length matters
+            mChannel.write(ByteBuffer.allocate(1), position + length - 1);
+        }
+
+        mSize += RECORD_HEADER_SIZE + nameBytes.length + Math.max(0, length);
+    }
+
+    /**
+     * Take name out of the index, its record becomes garbage.
+     *
+     * @return true if there was a record of name
+     */
+    private boolean forget(String name) {
+        final Record record = mRecords.remove(name);
+        if (record == null) {
+            return false;
+        }
+        mLiveSize -= record.size;
+        return true;
+    }
+
+    /**
+     * Copy live records into a new file which replaces this one, oldest
+     * first. The oldest are dropped until they and a record of nameLength
+     * and length to be put next fit {@link #COMPACT_FILL} of the maximum
+     * size, length is REMOVED if nothing is put next.
+     */
+    private void compact(int nameLength, int length) throws IOException {
+        final ArrayList<Map.Entry<String, Record>> live =
+            new ArrayList<Map.Entry<String, Record>>(mRecords.entrySet());
+        Collections.sort(live, FILE_ORDER);
+
+        final long limit = (long) (mMaxSize * COMPACT_FILL);
+        final long nextSize = length != REMOVED ? RECORD_HEADER_SIZE + nameLength + length : 0;
+        // Padding only adds, skip what can not fit without it
+        long liveSize = mLiveSize;
+        int first = 0;
+        while (first < live.size() && HEADER_SIZE + liveSize + nextSize > limit) {
+            liveSize -= live.get(first++).getValue().size;
+        }
+        // Padding depends on where records land, so the end with padding is
+        // found by laying them out. Dropping a record mostly moves the ones
+        // after it to an earlier end, search for the first one to keep. Where
+        // padding makes the end grow instead, the search may keep fewer
+        // records than would fit, never too many.
+        int last = live.size();
+        while (first < last) {
+            final int middle = (first + last) >>> 1;
+            if (endAfter(live, middle, nameLength, length) > limit) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+
+        final File compacted = new File(mFile.getPath() + ".tmp");
+        final RandomAccessFile oldFile = mRandomAccessFile;
+        final FileChannel oldChannel = mChannel;
+        final RandomAccessFile newFile = new RandomAccessFile(compacted, "rw");
+        boolean done = false;
+        try {
+            mChannel = newFile.getChannel();
+            mChannel.truncate(0);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            mChannel.write(header, 0);
+            mSize = HEADER_SIZE;
+            mChunks.clear();
+            mRecords.clear();
+            mLiveSize = 0;
+
+            for (int i = first; i < live.size(); ++i) {
+                final String name = live.get(i).getKey();
+                final Record record = live.get(i).getValue();
+                final long offset = append(name, record.width, record.height,
+                    record.format, record.length, null, oldChannel, record.offset);
+                if (offset < 0) {
+                    // endAfter() made room for all of them
+                    break;
+                }
+                mRecords.put(name, new Record(record.width, record.height, record.format,
+                    offset, record.length, record.size));
+                mLiveSize += record.size;
+            }
+
+            if (!compacted.renameTo(mFile)) {
+                throw new IOException("can not replace " + mFile);
+            }
+            done = true;
+        } finally {
+            if (done) {
+                mRandomAccessFile = newFile;
+                oldFile.close();
+            } else {
+                // Reopen the old file on next use
+                newFile.close();
+                compacted.delete();
+                oldFile.close();
+                mRandomAccessFile = null;
+                mChannel = null;
+                mRecords.clear();
+                mChunks.clear();
+            }
+        }
+    }
+
+    /**
+     * @return end of a file holding the records from first on, and a record
+     * of nameLength and length unless length is REMOVED
+     */
+    private long endAfter(ArrayList<Map.Entry<String, Record>> records, int first,
+                          int nameLength, int length) {
+        long position = HEADER_SIZE;
+        for (int i = first; i < records.size(); ++i) {
+            final Record record = records.get(i).getValue();
+            position = endOf(position, record.size - RECORD_HEADER_SIZE - record.length,
+                record.length);
+        }
+        return length != REMOVED ? endOf(position, nameLength, length) : position;
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = mChannel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+}
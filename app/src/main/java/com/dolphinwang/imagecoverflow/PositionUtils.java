@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+/**
+ * Wrapping of the endless cover flow onto adapter positions, in constant
+ * time whatever the item count and however far the offset has scrolled.
+ */
+final class PositionUtils {
+
+    private PositionUtils() {
+    }
+
+    /**
+     * @return position wrapped into [0, count), count must be positive
+     */
+    static int wrap(long position, int count) {
+        final int wrapped = (int) (position % count);
+        return wrapped < 0 ? wrapped + count : wrapped;
+    }
+
+    /**
+     * @return offset wrapped into [0, count), count must be positive
+     */
+    static double wrap(double offset, int count) {
+        final double wrapped = offset - count * Math.floor(offset / count);
+        // Rounding may land on count, or a hair below 0 when the quotient
+        // rounds up to a whole number, both are the same as 0
+        return wrapped < 0 || wrapped >= count ? 0 : wrapped;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of background threads. When the queue is full the oldest
+ * pending task is dropped, so the newest requests (usually the covers that
+ * are on screen right now) are always served.
+ */
+class WorkerPool {
+
+    abstract static class Task implements Runnable {
+        /**
+         * Called on the submitting thread instead of {@link #run()} when the
+         * task was dropped from a full queue or the pool was shut down.
+         */
+        void onDropped() {
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    WorkerPool(final String name, int threadCount, int queueCapacity) {
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 1,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, name + " #" + mCount.getAndIncrement());
+                }
+            }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    dropped(r);
+                    return;
+                }
+
+                dropped(executor.getQueue().poll());
+                executor.execute(r);
+            }
+        });
+    }
+
+    void execute(Task task) {
+        mExecutor.execute(task);
+    }
+
+    void shutdown() {
+        final List<Runnable> pending = new ArrayList<Runnable>(mExecutor.shutdownNow());
+        for (Runnable r : pending) {
+            dropped(r);
+        }
+    }
+
+    private static void dropped(Runnable r) {
+        if (r instanceof Task) {
+            ((Task) r).onDropped();
+        }
+    }
+}
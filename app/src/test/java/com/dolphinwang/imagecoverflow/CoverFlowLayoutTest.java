@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Properties of cover placement and fling physics over random layouts.
+ */
+public class CoverFlowLayoutTest {
+
+    private static final int RUNS = 2000;
+
+    private final Random mRandom = new Random(3);
+    private final CoverFlowLayout mLayout = new CoverFlowLayout();
+
+    private int mWidth;
+    private int mPaddingLeft;
+    private int mPaddingRight;
+    private int mChildHeight;
+    private int mHalfVisibleCount;
+
+    private void randomLayout(boolean symmetric) {
+        mWidth = 200 + mRandom.nextInt(2000);
+        mPaddingLeft = mRandom.nextInt(50);
+        mPaddingRight = symmetric ? mPaddingLeft : mRandom.nextInt(50);
+        mChildHeight = 100 + mRandom.nextInt(1000);
+        mHalfVisibleCount = 1 + mRandom.nextInt(7);
+        final float reflectHeightFraction = mRandom.nextFloat() * 0.5f;
+        final int reflectGap = mRandom.nextInt(20);
+        mLayout.setLayout(mWidth, mPaddingLeft, mPaddingRight, mChildHeight,
+            mRandom.nextInt(20), mChildHeight / 2, reflectHeightFraction, reflectGap,
+            mHalfVisibleCount);
+    }
+
+    @Test
+    public void middleCoverIsTheTopRect() {
+        final float[] rect = new float[4];
+        for (int run = 0; run < RUNS; ++run) {
+            randomLayout(false);
+            final int imageWidth = 50 + mRandom.nextInt(1000);
+            final int imageHeight = 50 + mRandom.nextInt(1000);
+
+            mLayout.transform(imageWidth, imageHeight, 0);
+            mLayout.getTopRect(imageWidth, imageHeight, rect);
+
+            assertEquals((float) mLayout.getCenterHeight() / imageHeight, mLayout.scale, 1e-6f);
+            assertEquals(rect[CoverFlowLayout.LEFT], mLayout.translateX, 1f);
+            assertEquals(mLayout.getCenterHeight(),
+                rect[CoverFlowLayout.BOTTOM] - rect[CoverFlowLayout.TOP], 0);
+        }
+    }
+
+    @Test
+    public void outermostCoversTouchThePadding() {
+        for (int run = 0; run < RUNS; ++run) {
+            randomLayout(false);
+            final int imageWidth = 50 + mRandom.nextInt(1000);
+            final int imageHeight = 50 + mRandom.nextInt(1000);
+
+            mLayout.transform(imageWidth, imageHeight, -mHalfVisibleCount);
+            assertEquals(mPaddingLeft, mLayout.translateX, 1e-3f);
+
+            mLayout.transform(imageWidth, imageHeight, mHalfVisibleCount);
+            final float right = mLayout.translateX + (int) (imageWidth * mLayout.scale);
+            assertEquals(mWidth - mPaddingRight, right, 1e-3f);
+        }
+    }
+
+    @Test
+    public void placementIsMirrored() {
+        for (int run = 0; run < RUNS; ++run) {
+            randomLayout(true);
+            final int imageWidth = 50 + mRandom.nextInt(1000);
+            final int imageHeight = 50 + mRandom.nextInt(1000);
+            final float offset = mRandom.nextFloat() * mHalfVisibleCount;
+
+            mLayout.transform(imageWidth, imageHeight, -offset);
+            final float leftX = mLayout.translateX;
+            final float leftScale = mLayout.scale;
+            final float leftY = mLayout.translateY;
+
+            mLayout.transform(imageWidth, imageHeight, offset);
+            final float rightEnd = mLayout.translateX + (int) (imageWidth * mLayout.scale);
+
+            assertEquals(leftScale, mLayout.scale, 0);
+            assertEquals(leftY, mLayout.translateY, 0);
+            assertEquals(mWidth - leftX, rightEnd, 1e-2f);
+        }
+    }
+
+    @Test
+    public void coversMoveRightAndShrinkAwayFromTheMiddle() {
+        for (int run = 0; run < RUNS; ++run) {
+            randomLayout(false);
+            final int imageWidth = 50 + mRandom.nextInt(1000);
+            final int imageHeight = 50 + mRandom.nextInt(1000);
+            if (!middleCoverFits(imageWidth, imageHeight)) {
+                // Side covers are pushed outwards, behind the middle one
+                continue;
+            }
+
+            float lastX = -Float.MAX_VALUE;
+            float lastScale = -Float.MAX_VALUE;
+            for (int step = -100; step <= 100; ++step) {
+                final float offset = step * mHalfVisibleCount / 100f;
+                mLayout.transform(imageWidth, imageHeight, offset);
+
+                // Widths are whole pixels, halves round down on either side
+                // of the middle
+                assertTrue("offset " + offset, mLayout.translateX >= lastX - 1);
+                if (offset <= 0) {
+                    assertTrue(mLayout.scale >= lastScale);
+                } else {
+                    assertTrue(mLayout.scale <= lastScale);
+                }
+                if (Math.abs(offset) < 1 / CoverFlowLayout.CARD_SCALE) {
+                    assertTrue(mLayout.scale > 0);
+                }
+                lastX = mLayout.translateX;
+                lastScale = mLayout.scale;
+            }
+        }
+    }
+
+    @Test
+    public void drawIndicesPlaceCoversLikeTheirSize() {
+        final CoverFlowLayout sized = new CoverFlowLayout();
+        for (int run = 0; run < RUNS / 10; ++run) {
+            randomLayout(false);
+            sized.setLayout(mWidth, mPaddingLeft, mPaddingRight, mChildHeight, 0,
+                mChildHeight / 2, 0.25f, 5, mHalfVisibleCount);
+            mLayout.setLayout(mWidth, mPaddingLeft, mPaddingRight, mChildHeight, 0,
+                mChildHeight / 2, 0.25f, 5, mHalfVisibleCount);
+
+            // Covers come and go and change size, as while scrolling
+            final int[] widths = new int[8];
+            for (int i = 0; i < widths.length; ++i) {
+                widths[i] = 50 + mRandom.nextInt(1000);
+            }
+            for (int frame = 0; frame < 50; ++frame) {
+                final float offset = frame * 0.37f;
+                if (mRandom.nextInt(10) == 0) {
+                    widths[mRandom.nextInt(widths.length)] = 50 + mRandom.nextInt(1000);
+                }
+                final int mid = (int) Math.floor(offset + 0.5f);
+                for (int i = mid - mHalfVisibleCount; i <= mid + mHalfVisibleCount; ++i) {
+                    final int imageWidth = widths[i & (widths.length - 1)];
+                    mLayout.transform(i, imageWidth, 300, i - offset);
+                    sized.transform(imageWidth, 300, i - offset);
+                    assertEquals(sized.scale, mLayout.scale, 0);
+                    assertEquals(sized.translateX, mLayout.translateX, 0);
+                    assertEquals(sized.translateY, mLayout.translateY, 0);
+                    assertEquals(sized.reflectionTranslateY, mLayout.reflectionTranslateY, 0);
+                    assertEquals(sized.pivotY, mLayout.pivotY, 0);
+                }
+            }
+        }
+    }
+
+    private boolean middleCoverFits(int imageWidth, int imageHeight) {
+        final int centerWidth = (int) (imageWidth * ((float) mLayout.getCenterHeight() / imageHeight));
+        return centerWidth >> 1 <= (mWidth >> 1) - Math.max(mPaddingLeft, mPaddingRight);
+    }
+
+    @Test
+    public void flingRestsOnACover() {
+        for (int run = 0; run < RUNS; ++run) {
+            final double start = (mRandom.nextDouble() - 0.5) * 2000000;
+            final double speed = (mRandom.nextDouble() - 0.5) * 20;
+
+            final double nearest = mLayout.startFling(start, speed);
+            final float duration = mLayout.getFlingDuration();
+
+            assertEquals(Math.floor(nearest), nearest, 0);
+            assertTrue(Math.abs(nearest - start) <= speed * speed / (2 * CoverFlowLayout.FRICTION)
+                + 0.5 + 1e-6);
+            assertEquals(start, mLayout.getFlingOffset(0), 1e-9);
+            assertEquals(nearest, mLayout.getFlingOffset(duration), 1e-3);
+            assertEquals(nearest, mLayout.getFlingOffset(duration + 1), 1e-3);
+
+            // Never overshoots or turns back
+            double last = start;
+            for (int step = 1; step <= 50; ++step) {
+                final double offset = mLayout.getFlingOffset(duration * step / 50);
+                if (nearest >= start) {
+                    assertTrue(offset >= last - 1e-6 && offset <= nearest + 1e-3);
+                } else {
+                    assertTrue(offset <= last + 1e-6 && offset >= nearest - 1e-3);
+                }
+                last = offset;
+            }
+        }
+    }
+
+    @Test
+    public void dragAcrossTheViewMovesOneAndAHalfCovers() {
+        for (int run = 0; run < RUNS; ++run) {
+            randomLayout(false);
+            final float left = CoverFlowLayout.touchPosition(0, mWidth);
+            final float right = CoverFlowLayout.touchPosition(mWidth, mWidth);
+
+            assertEquals(1.5f, right - left, 1e-5f);
+        }
+    }
+
+    @Test
+    public void flingSpeedIsLimited() {
+        for (int run = 0; run < RUNS; ++run) {
+            randomLayout(false);
+            assertEquals(2, CoverFlowLayout.flingSpeed(mWidth * 2, mWidth), 1e-9);
+            assertEquals(-2, CoverFlowLayout.flingSpeed(-mWidth * 2, mWidth), 1e-9);
+            assertEquals(10, CoverFlowLayout.flingSpeed(mWidth * 100, mWidth), 0);
+            assertEquals(-10, CoverFlowLayout.flingSpeed(-mWidth * 100, mWidth), 0);
+        }
+    }
+
+    @Test
+    public void childHeightFitsTheView() {
+        for (int run = 0; run < RUNS; ++run) {
+            final int available = mRandom.nextInt(2000);
+            final int maxChild = mRandom.nextInt(2000);
+
+            assertEquals(available,
+                CoverFlowLayout.resolveChildHeight(true, mRandom.nextBoolean(), available,
+                    maxChild));
+            assertEquals(maxChild,
+                CoverFlowLayout.resolveChildHeight(false, false, available, maxChild));
+            assertEquals(Math.min(available, maxChild),
+                CoverFlowLayout.resolveChildHeight(false, true, available, maxChild));
+        }
+    }
+
+    @Test
+    public void totalHeightAddsReflectionAndGap() {
+        assertEquals(100, CoverFlowLayout.totalHeight(100, 0, 0));
+        assertEquals(140, CoverFlowLayout.totalHeight(100, 0.3f, 10));
+        for (int run = 0; run < RUNS; ++run) {
+            final int height = mRandom.nextInt(2000);
+            final float fraction = mRandom.nextFloat();
+            final int gap = mRandom.nextInt(50);
+            final int total = CoverFlowLayout.totalHeight(height, fraction, gap);
+            assertTrue(total >= height + gap);
+            assertTrue(total <= height * (1 + fraction) + gap);
+        }
+    }
+}
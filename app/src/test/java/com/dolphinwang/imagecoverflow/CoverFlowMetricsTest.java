@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoverFlowMetricsTest {
+
+    private static final long INTERVAL = 16666667;
+    private static final long START = 1000000000L;
+
+    private final CoverFlowMetrics mMetrics = new CoverFlowMetrics();
+
+    private void frame(long frameTimeNanos) {
+        mMetrics.recordFrame(START, START + 1000000, frameTimeNanos, INTERVAL);
+    }
+
+    @Test
+    public void framesEveryIntervalDropNothing() {
+        for (int i = 0; i < 60; ++i) {
+            frame(START + i * INTERVAL);
+        }
+        assertEquals(60, mMetrics.getMovingFrameCount());
+        assertEquals(0, mMetrics.getDroppedFrameCount());
+    }
+
+    @Test
+    public void skippedFrameTimesAreDropped() {
+        frame(START);
+        frame(START + INTERVAL);
+        frame(START + 4 * INTERVAL);
+        frame(START + 5 * INTERVAL);
+        assertEquals(2, mMetrics.getDroppedFrameCount());
+    }
+
+    @Test
+    public void framesNotAskedForDropNothing() {
+        frame(START);
+        frame(0);
+        frame(START + 10 * INTERVAL);
+        assertEquals(3, mMetrics.getFrameCount());
+        assertEquals(2, mMetrics.getMovingFrameCount());
+        assertEquals(0, mMetrics.getDroppedFrameCount());
+    }
+
+    @Test
+    public void restingFingerDropsNothing() {
+        frame(START);
+        mMetrics.recordIdle();
+        frame(START + 30 * INTERVAL);
+        frame(START + 31 * INTERVAL);
+        assertEquals(0, mMetrics.getDroppedFrameCount());
+    }
+
+    @Test
+    public void jitterIsNotADrop() {
+        frame(START);
+        frame(START + INTERVAL + INTERVAL / 3);
+        frame(START + 2 * INTERVAL);
+        assertEquals(0, mMetrics.getDroppedFrameCount());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * No class of the library asks for a garbage collection, not the cache
+ * inserts of the draw path nor anything else. Scans the constant pools of
+ * the compiled classes for references to System.gc(), Runtime.gc() and
+ * runFinalization().
+ */
+public class ExplicitGcTest {
+
+    private static final String[][] FORBIDDEN = {
+        {"java/lang/System", "gc"},
+        {"java/lang/Runtime", "gc"},
+        {"java/lang/System", "runFinalization"},
+        {"java/lang/Runtime", "runFinalization"},
+    };
+
+    @Test
+    public void noClassCallsGc() throws IOException, URISyntaxException {
+        final File dir = new File(CoverCache.class.getResource("CoverCache.class").toURI())
+            .getParentFile();
+        final File[] files = dir.listFiles();
+        int scanned = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".class")) {
+                continue;
+            }
+            for (String[] method : methodRefsOf(file)) {
+                for (String[] forbidden : FORBIDDEN) {
+                    if (forbidden[0].equals(method[0]) && forbidden[1].equals(method[1])) {
+                        fail(file.getName() + " calls " + method[0] + "." + method[1]);
+                    }
+                }
+            }
+            scanned++;
+        }
+
+        // CoverFlowView, CoverCache and their inner classes at least
+        assertTrue("scanned " + scanned + " classes", scanned > 10);
+    }
+
+    /**
+     * @return class and name of every method the class refers to
+     */
+    private static List<String[]> methodRefsOf(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != 0xcafebabe) {
+                throw new IOException(file + " is not a class file");
+            }
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+
+            final int count = in.readUnsignedShort();
+            final String[] utf8 = new String[count];
+            final int[] first = new int[count];
+            final int[] second = new int[count];
+            final int[] tags = new int[count];
+            for (int i = 1; i < count; ++i) {
+                final int tag = in.readUnsignedByte();
+                tags[i] = tag;
+                switch (tag) {
+                    case 1: // Utf8
+                        utf8[i] = in.readUTF();
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                        in.readInt();
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        in.readLong();
+                        ++i;
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        first[i] = in.readUnsignedShort();
+                        break;
+                    case 15: // MethodHandle
+                        in.readUnsignedByte();
+                        first[i] = in.readUnsignedShort();
+                        break;
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        first[i] = in.readUnsignedShort();
+                        second[i] = in.readUnsignedShort();
+                        break;
+                    default:
+                        throw new IOException(file + ": constant pool tag " + tag);
+                }
+            }
+
+            final List<String[]> methods = new ArrayList<String[]>();
+            for (int i = 1; i < count; ++i) {
+                if (tags[i] == 10) {
+                    final String owner = utf8[first[first[i]]];
+                    final String name = utf8[first[second[i]]];
+                    methods.add(new String[]{owner, name});
+                }
+            }
+            return methods;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LongLruCache against a model built like LruCache, on an access ordered
+ * LinkedHashMap: same values, sizes, eviction order and removal callbacks.
+ */
+public class LongLruCacheTest {
+
+    private static final int KEY_COUNT = 40;
+    private static final int TAG_COUNT = 3;
+
+    private final Random mRandom = new Random(7);
+    private final List<String> mRemoved = new ArrayList<String>();
+    private final List<String> mExpectedRemoved = new ArrayList<String>();
+    private int mNextValue = 1000;
+
+    @Test
+    public void randomOperationsMatchLinkedHashMap() {
+        for (int round = 0; round < 20; ++round) {
+            final int maxSize = 5 + mRandom.nextInt(60);
+            final LongLruCache<Integer> cache = newCache(maxSize);
+            final Model model = new Model(maxSize);
+
+            for (int op = 0; op < 5000; ++op) {
+                final long key = keyOf(mRandom.nextInt(KEY_COUNT));
+                final int tag = mRandom.nextInt(TAG_COUNT);
+                final int choice = mRandom.nextInt(100);
+                if (choice < 45) {
+                    assertSame(model.get(key, tag), cache.get(key, tag));
+                } else if (choice < 85) {
+                    final Integer value = mNextValue++;
+                    assertSame(model.put(key, tag, value), cache.put(key, tag, value));
+                } else if (choice < 95) {
+                    assertSame(model.remove(key, tag), cache.remove(key, tag));
+                } else if (choice < 99) {
+                    final int size = mRandom.nextInt(maxSize + 1);
+                    final int minCount = mRandom.nextInt(8);
+                    model.trimToSize(size, minCount);
+                    cache.trimToSize(size, minCount);
+                } else {
+                    model.evictAll();
+                    cache.evictAll();
+                }
+
+                // Only the removals of this operation, comparing whole logs
+                // after every operation takes quadratic time
+                assertEquals(mExpectedRemoved, mRemoved);
+                mExpectedRemoved.clear();
+                mRemoved.clear();
+                assertEquals(model.mSize, cache.size());
+                assertEquals(model.mMap.size(), cache.count());
+            }
+
+            for (int i = 0; i < KEY_COUNT; ++i) {
+                for (int tag = 0; tag < TAG_COUNT; ++tag) {
+                    assertEquals(model.mMap.containsKey(nameOf(keyOf(i), tag)),
+                        cache.containsKey(keyOf(i), tag));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tagsAreDistinctEntries() {
+        final LongLruCache<Integer> cache = newCache(100);
+        final Integer a = mNextValue++;
+        final Integer b = mNextValue++;
+        cache.put(42, a);
+        cache.put(42, 1, b);
+
+        assertSame(a, cache.get(42));
+        assertSame(a, cache.get(42, 0));
+        assertSame(b, cache.get(42, 1));
+        assertNull(cache.get(42, 2));
+
+        cache.remove(42, 0);
+        assertFalse(cache.containsKey(42));
+        assertSame(b, cache.get(42, 1));
+    }
+
+    @Test
+    public void trimKeepsMinCountMostRecent() {
+        final LongLruCache<Integer> cache = new LongLruCache<Integer>(100);
+        for (int i = 0; i < 10; ++i) {
+            cache.put(i, mNextValue++);
+        }
+        cache.get(0);
+
+        cache.trimToSize(0, 3);
+
+        assertEquals(3, cache.count());
+        assertEquals(3, cache.size());
+        assertFalse(cache.containsKey(7));
+        assertTrue(cache.containsKey(8));
+        assertTrue(cache.containsKey(9));
+        assertTrue(cache.containsKey(0));
+    }
+
+    @Test
+    public void collidingKeysSurviveRemoval() {
+        // Keys with the same low bits probe the same slots
+        final LongLruCache<Integer> cache = new LongLruCache<Integer>(1000);
+        final Model model = new Model(1000);
+        for (int i = 0; i < 200; ++i) {
+            final long key = (long) i << 40;
+            final Integer value = mNextValue++;
+            cache.put(key, value);
+            model.put(key, 0, value);
+        }
+        for (int i = 0; i < 200; i += 3) {
+            cache.remove((long) i << 40);
+            model.remove((long) i << 40, 0);
+        }
+        for (int i = 0; i < 200; ++i) {
+            assertSame(model.get((long) i << 40, 0), cache.get((long) i << 40));
+        }
+    }
+
+    private LongLruCache<Integer> newCache(int maxSize) {
+        return new LongLruCache<Integer>(maxSize) {
+            @Override
+            protected int sizeOf(long key, Integer value) {
+                return LongLruCacheTest.sizeOf(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, long key,
+                                        Integer oldValue, Integer newValue) {
+                mRemoved.add(removal(evicted, key, oldValue, newValue));
+            }
+        };
+    }
+
+    private static long keyOf(int i) {
+        // Spread over all 64 bits, like hashed stable ids
+        return i * 0x9e3779b97f4a7c15L;
+    }
+
+    private static int sizeOf(Integer value) {
+        return value % 5 + 1;
+    }
+
+    private static String nameOf(long key, int tag) {
+        return key + "/" + tag;
+    }
+
+    private static String removal(boolean evicted, long key, Integer oldValue,
+                                  Integer newValue) {
+        return evicted + " " + key + " " + oldValue + " " + newValue;
+    }
+
+    /**
+     * What LruCache does, with key and tag in one boxed key
+     */
+    private class Model {
+        final LinkedHashMap<String, Integer> mMap =
+            new LinkedHashMap<String, Integer>(0, 0.75f, true);
+        final Map<String, Long> mKeys = new LinkedHashMap<String, Long>();
+        final int mMaxSize;
+        int mSize;
+
+        Model(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        Integer get(long key, int tag) {
+            return mMap.get(nameOf(key, tag));
+        }
+
+        Integer put(long key, int tag, Integer value) {
+            final String name = nameOf(key, tag);
+            mSize += sizeOf(value);
+            mKeys.put(name, key);
+            final Integer previous = mMap.put(name, value);
+            if (previous != null) {
+                mSize -= sizeOf(previous);
+                mExpectedRemoved.add(removal(false, key, previous, value));
+            }
+            trimToSize(mMaxSize, 0);
+            return previous;
+        }
+
+        Integer remove(long key, int tag) {
+            final Integer previous = mMap.remove(nameOf(key, tag));
+            if (previous != null) {
+                mSize -= sizeOf(previous);
+                mExpectedRemoved.add(removal(false, key, previous, null));
+            }
+            return previous;
+        }
+
+        void trimToSize(int maxSize, int minCount) {
+            final Iterator<Map.Entry<String, Integer>> eldest = mMap.entrySet().iterator();
+            while (mSize > maxSize && mMap.size() > minCount) {
+                final Map.Entry<String, Integer> entry = eldest.next();
+                eldest.remove();
+                mSize -= sizeOf(entry.getValue());
+                mExpectedRemoved.add(removal(true, mKeys.get(entry.getKey()),
+                    entry.getValue(), null));
+            }
+        }
+
+        void evictAll() {
+            trimToSize(-1, 0);
+        }
+    }
+}
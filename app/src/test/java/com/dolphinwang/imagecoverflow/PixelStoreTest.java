@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PixelStoreTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private PixelStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "pixels");
+        mStore = new PixelStore(mFile, 1024 * 1024, CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mStore.close();
+    }
+
+    @Test
+    public void getReturnsWhatWasPut() throws IOException {
+        final byte[] pixels = pixels(1, 100);
+        assertTrue(mStore.put("a", 5, 5, 7, ByteBuffer.wrap(pixels)));
+
+        final PixelStore.Entry entry = mStore.get("a");
+        assertNotNull(entry);
+        assertEquals(5, entry.getWidth());
+        assertEquals(5, entry.getHeight());
+        assertEquals(7, entry.getFormat());
+        assertArrayEquals(pixels, bytesOf(entry));
+        assertNull(mStore.get("b"));
+    }
+
+    @Test
+    public void recordsSurviveReopen() throws IOException {
+        final byte[] a = pixels(1, 300);
+        final byte[] b = pixels(2, 500);
+        mStore.put("a", 1, 1, 0, ByteBuffer.wrap(a));
+        mStore.put("b", 1, 1, 0, ByteBuffer.wrap(b));
+        mStore.put("a", 1, 1, 0, ByteBuffer.wrap(b));
+        mStore.put("c", 1, 1, 0, ByteBuffer.wrap(a));
+        mStore.remove("c");
+        mStore.close();
+
+        mStore = new PixelStore(mFile, 1024 * 1024, CHUNK_SIZE);
+        assertEquals(2, mStore.getEntryCount());
+        assertArrayEquals(b, bytesOf(mStore.get("a")));
+        assertArrayEquals(b, bytesOf(mStore.get("b")));
+        assertNull(mStore.get("c"));
+    }
+
+    @Test
+    public void pixelsNeverCrossAChunk() throws IOException {
+        final Random random = new Random(42);
+        final byte[][] stored = new byte[200][];
+        for (int i = 0; i < stored.length; ++i) {
+            stored[i] = pixels(i, 1 + random.nextInt(CHUNK_SIZE));
+            assertTrue(mStore.put("cover" + i, 1, 1, 0, ByteBuffer.wrap(stored[i])));
+        }
+
+        for (int i = 0; i < stored.length; ++i) {
+            assertArrayEquals(stored[i], bytesOf(mStore.get("cover" + i)));
+        }
+
+        mStore.close();
+        mStore = new PixelStore(mFile, 1024 * 1024, CHUNK_SIZE);
+        assertEquals(stored.length, mStore.getEntryCount());
+        for (int i = 0; i < stored.length; ++i) {
+            assertArrayEquals(stored[i], bytesOf(mStore.get("cover" + i)));
+        }
+    }
+
+    @Test
+    public void pixelsLargerThanAChunk() throws IOException {
+        final byte[] small = pixels(1, 100);
+        final byte[] large = pixels(2, CHUNK_SIZE * 3 + 17);
+        mStore.put("small", 1, 1, 0, ByteBuffer.wrap(small));
+        mStore.put("large", 1, 1, 0, ByteBuffer.wrap(large));
+        mStore.put("after", 1, 1, 0, ByteBuffer.wrap(small));
+
+        assertArrayEquals(large, bytesOf(mStore.get("large")));
+        assertArrayEquals(small, bytesOf(mStore.get("after")));
+    }
+
+    @Test
+    public void readsAfterAppendsToTheMappedChunk() throws IOException {
+        final byte[] a = pixels(1, 10);
+        final byte[] b = pixels(2, 10);
+        mStore.put("a", 1, 1, 0, ByteBuffer.wrap(a));
+        assertArrayEquals(a, bytesOf(mStore.get("a")));
+
+        mStore.put("b", 1, 1, 0, ByteBuffer.wrap(b));
+        assertArrayEquals(b, bytesOf(mStore.get("b")));
+        assertArrayEquals(a, bytesOf(mStore.get("a")));
+    }
+
+    @Test
+    public void removeAllRemovesByPrefix() throws IOException {
+        mStore.put("1_a", 1, 1, 0, ByteBuffer.wrap(pixels(1, 10)));
+        mStore.put("1_b", 1, 1, 0, ByteBuffer.wrap(pixels(2, 10)));
+        mStore.put("2_a", 1, 1, 0, ByteBuffer.wrap(pixels(3, 10)));
+
+        mStore.removeAll("1_");
+
+        assertNull(mStore.get("1_a"));
+        assertNull(mStore.get("1_b"));
+        assertNotNull(mStore.get("2_a"));
+    }
+
+    @Test
+    public void putFailsWhenLargerThanTheStore() throws IOException {
+        mStore.close();
+        mStore = new PixelStore(mFile, 2048, CHUNK_SIZE);
+        assertTrue(mStore.put("a", 1, 1, 0, ByteBuffer.wrap(pixels(1, 1000))));
+        assertFalse(mStore.put("b", 1, 1, 0, ByteBuffer.wrap(pixels(2, 2048))));
+        assertNull(mStore.get("b"));
+        assertNotNull(mStore.get("a"));
+    }
+
+    @Test
+    public void fullStoreDropsOldestRecords() throws IOException {
+        mStore.close();
+        mStore = new PixelStore(mFile, 8192, CHUNK_SIZE);
+        final byte[][] stored = new byte[100][];
+        for (int i = 0; i < stored.length; ++i) {
+            stored[i] = pixels(i, 500);
+            assertTrue(mStore.put("cover" + i, 1, 1, 0, ByteBuffer.wrap(stored[i])));
+            assertTrue(mStore.getSize() <= 8192);
+            assertArrayEquals(stored[i], bytesOf(mStore.get("cover" + i)));
+        }
+
+        assertNull(mStore.get("cover0"));
+        final int count = mStore.getEntryCount();
+        assertTrue(count > 1);
+        mStore.close();
+
+        mStore = new PixelStore(mFile, 8192, CHUNK_SIZE);
+        assertEquals(count, mStore.getEntryCount());
+        for (int i = stored.length - count; i < stored.length; ++i) {
+            assertArrayEquals(stored[i], bytesOf(mStore.get("cover" + i)));
+        }
+    }
+
+    @Test
+    public void compactionKeepsNewestPaddedRecords() throws IOException {
+        mStore.close();
+        final int maxSize = 64 * 1024;
+        mStore = new PixelStore(mFile, maxSize, CHUNK_SIZE);
+        final Random random = new Random(7);
+        final int count = 5000;
+        final int[] lengths = new int[count];
+        for (int i = 0; i < count; ++i) {
+            lengths[i] = 20 + random.nextInt(180);
+            assertTrue(mStore.put("cover" + i, 1, 1, 0, ByteBuffer.wrap(pixels(i, lengths[i]))));
+            assertTrue(mStore.getSize() <= maxSize);
+        }
+
+        // Only the oldest are dropped, and not many more than needed
+        int kept = 0;
+        long keptLength = 0;
+        for (int i = count - 1; i >= 0 && mStore.get("cover" + i) != null; --i) {
+            assertArrayEquals(pixels(i, lengths[i]), bytesOf(mStore.get("cover" + i)));
+            kept++;
+            keptLength += lengths[i];
+        }
+        assertEquals(kept, mStore.getEntryCount());
+        assertTrue(keptLength > maxSize / 2);
+    }
+
+    @Test
+    public void removalsCountAgainstMaxSize() throws IOException {
+        mStore.close();
+        mStore = new PixelStore(mFile, 4096, CHUNK_SIZE);
+        final byte[] a = pixels(1, 100);
+        assertTrue(mStore.put("kept", 1, 1, 0, ByteBuffer.wrap(a)));
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(mStore.put("cover" + (i % 3), 1, 1, 0, ByteBuffer.wrap(pixels(i, 300))));
+            mStore.remove("cover" + (i % 3));
+            assertTrue(mStore.getSize() <= 4096);
+        }
+
+        // Garbage is compacted away, live records stay
+        assertArrayEquals(a, bytesOf(mStore.get("kept")));
+        assertEquals(1, mStore.getEntryCount());
+        mStore.close();
+
+        mStore = new PixelStore(mFile, 4096, CHUNK_SIZE);
+        assertArrayEquals(a, bytesOf(mStore.get("kept")));
+        assertNull(mStore.get("cover0"));
+    }
+
+    @Test
+    public void smallerMaxSizeCompactsOnOpen() throws IOException {
+        for (int i = 0; i < 20; ++i) {
+            mStore.put("cover" + i, 1, 1, 0, ByteBuffer.wrap(pixels(i, 500)));
+        }
+        mStore.close();
+
+        mStore = new PixelStore(mFile, 4096, CHUNK_SIZE);
+        assertTrue(mStore.getSize() <= 4096);
+        assertNotNull(mStore.get("cover19"));
+        assertNull(mStore.get("cover0"));
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnOpen() throws IOException {
+        final byte[] a = pixels(1, 100);
+        mStore.put("a", 1, 1, 0, ByteBuffer.wrap(a));
+        mStore.put("b", 1, 1, 0, ByteBuffer.wrap(pixels(2, 100)));
+        final long size = mStore.getSize();
+        mStore.close();
+
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(size - 10);
+        file.close();
+
+        mStore = new PixelStore(mFile, 1024 * 1024, CHUNK_SIZE);
+        assertArrayEquals(a, bytesOf(mStore.get("a")));
+        assertNull(mStore.get("b"));
+        assertTrue(mStore.put("c", 1, 1, 0, ByteBuffer.wrap(a)));
+        assertArrayEquals(a, bytesOf(mStore.get("c")));
+    }
+
+    @Test
+    public void namesAreUtf8() throws IOException {
+        final byte[] a = pixels(1, 10);
+        mStore.put("封面", 1, 1, 0, ByteBuffer.wrap(a));
+        mStore.close();
+
+        mStore = new PixelStore(mFile, 1024 * 1024, CHUNK_SIZE);
+        assertArrayEquals(a, bytesOf(mStore.get("封面")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyNameIsRejected() throws IOException {
+        mStore.put("", 1, 1, 0, ByteBuffer.wrap(pixels(1, 10)));
+    }
+
+    private static byte[] pixels(int seed, int length) {
+        final byte[] pixels = new byte[length];
+        new Random(seed).nextBytes(pixels);
+        return pixels;
+    }
+
+    private static byte[] bytesOf(PixelStore.Entry entry) {
+        final ByteBuffer buffer = entry.getPixels().duplicate();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
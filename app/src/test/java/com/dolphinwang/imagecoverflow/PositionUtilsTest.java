@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PositionUtilsTest {
+
+    private static final int HALF_VISIBLE = 3;
+
+    @Test
+    public void positionMatchesOldLoop() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 100000; ++i) {
+            final int count = 1 + random.nextInt(1000);
+            final int position = random.nextInt(20 * count) - 10 * count;
+            assertEquals("position " + position + " of " + count,
+                oldActuallyPosition(position, count),
+                PositionUtils.wrap((long) position + HALF_VISIBLE, count));
+        }
+    }
+
+    @Test
+    public void positionAtIntegerLimits() {
+        for (int count = 1; count < 100; ++count) {
+            assertEquals(oldLoop((long) Integer.MAX_VALUE, count),
+                PositionUtils.wrap((long) Integer.MAX_VALUE, count));
+            assertEquals(oldLoop((long) Integer.MIN_VALUE, count),
+                PositionUtils.wrap((long) Integer.MIN_VALUE, count));
+            assertEquals(oldLoop((long) Integer.MAX_VALUE + HALF_VISIBLE, count),
+                PositionUtils.wrap((long) Integer.MAX_VALUE + HALF_VISIBLE, count));
+        }
+    }
+
+    @Test
+    public void offsetMatchesOldLoop() {
+        final Random random = new Random(2);
+        for (int i = 0; i < 100000; ++i) {
+            final int count = 1 + random.nextInt(1000);
+            final double offset = (random.nextDouble() * 20 - 10) * count;
+            final double expected = oldWrapOffset(offset, count);
+            final double actual = PositionUtils.wrap(offset + HALF_VISIBLE, count)
+                - HALF_VISIBLE;
+            assertEquals("offset " + offset + " of " + count, expected, actual, 1e-9);
+        }
+    }
+
+    @Test
+    public void wrappedOffsetStaysBelowCount() {
+        for (int count = 1; count < 100; ++count) {
+            final double wrapped = PositionUtils.wrap(-Math.ulp(0.0), count);
+            assertTrue(wrapped >= 0 && wrapped < count);
+            assertEquals(0, PositionUtils.wrap((double) count, count), 0);
+            assertEquals(0, PositionUtils.wrap((double) -count, count), 0);
+        }
+    }
+
+    @Test
+    public void fractionSurvivesLargePositions() {
+        final int count = 10000000;
+        double offset = 5000000;
+        for (int i = 1; i <= 10; ++i) {
+            offset += 0.1;
+            final double wrapped = PositionUtils.wrap(offset, count);
+            assertEquals(5000000 + i * 0.1, wrapped, 1e-6);
+        }
+
+        // A float can not even tell these offsets apart
+        assertEquals((float) 5000000.1, (float) 5000000.2, 0);
+    }
+
+    /**
+     * getActuallyPosition() before positions were wrapped in constant time
+     */
+    private static int oldActuallyPosition(int position, int max) {
+        position += HALF_VISIBLE;
+        while (position < 0 || position >= max) {
+            if (position < 0) {
+                position += max;
+            } else if (position >= max) {
+                position -= max;
+            }
+        }
+        return position;
+    }
+
+    private static int oldLoop(long position, int max) {
+        while (position < 0 || position >= max) {
+            if (position < 0) {
+                position += (long) max * Math.max(1, -position / max);
+            } else {
+                position -= (long) max * Math.max(1, position / max);
+            }
+        }
+        return (int) position;
+    }
+
+    /**
+     * Adapter change handling of mOffset before offsets were wrapped in
+     * constant time
+     */
+    private static double oldWrapOffset(double offset, int max) {
+        offset += HALF_VISIBLE;
+        while (offset < 0 || offset >= max) {
+            if (offset < 0) {
+                offset += max;
+            } else if (offset >= max) {
+                offset -= max;
+            }
+        }
+        return offset - HALF_VISIBLE;
+    }
+}
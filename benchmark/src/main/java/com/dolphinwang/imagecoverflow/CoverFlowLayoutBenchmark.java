@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placement of every visible cover for one frame, as onDraw() does it.
+ * {@link #matrixFrame} also builds the cover and reflection matrices from
+ * the placement, {@link #baselineMatrixFrame} builds them the way
+ * makeChildTransformer() did before CoverFlowLayout, on the same inputs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverFlowLayoutBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int PADDING_LEFT = 16;
+    private static final int PADDING_RIGHT = 16;
+    private static final int CHILD_HEIGHT = 600;
+    private static final int CHILD_TRANSLATE_Y = 0;
+    private static final int REFLECTION_TRANSLATE_Y = 420;
+    private static final float REFLECT_HEIGHT_FRACTION = 0.3f;
+    private static final int REFLECT_GAP = 10;
+    private static final int IMAGE_HEIGHT = 600;
+
+    @Param({"3", "7", "15"})
+    public int visibleCount;
+
+    private final CoverFlowLayout mLayout = new CoverFlowLayout();
+    private final AffineMatrix mChildTransformer = new AffineMatrix();
+    private final AffineMatrix mReflectionTransformer = new AffineMatrix();
+    private int mHalfVisibleCount;
+    private double mOffset;
+
+    @Setup
+    public void setUp() {
+        mHalfVisibleCount = visibleCount >> 1;
+        mLayout.setLayout(WIDTH, PADDING_LEFT, PADDING_RIGHT, CHILD_HEIGHT, CHILD_TRANSLATE_Y,
+            REFLECTION_TRANSLATE_Y, REFLECT_HEIGHT_FRACTION, REFLECT_GAP, mHalfVisibleCount);
+
+        // Both ways have to build the same matrices to be compared
+        final AffineMatrix child = new AffineMatrix();
+        final AffineMatrix reflection = new AffineMatrix();
+        for (int i = -mHalfVisibleCount * 8; i <= mHalfVisibleCount * 8; ++i) {
+            final float offset = i / 8f;
+            final int imageWidth = imageWidth(i);
+            makeChildTransformer(i, imageWidth, offset);
+            child.set(mChildTransformer);
+            reflection.set(mReflectionTransformer);
+            baselineMakeChildTransformer(imageWidth, offset);
+            if (!child.nearlyEquals(mChildTransformer)
+                || !reflection.nearlyEquals(mReflectionTransformer)) {
+                throw new IllegalStateException("Matrices differ at offset " + offset);
+            }
+        }
+    }
+
+    @Benchmark
+    public void transformFrame(Blackhole blackhole) {
+        // A fraction of a cover per frame, as while scrolling
+        mOffset += 0.0173;
+        final int mid = (int) Math.floor(mOffset + 0.5);
+        for (int i = mid - mHalfVisibleCount; i <= mid + mHalfVisibleCount; ++i) {
+            mLayout.transform(i, imageWidth(i), IMAGE_HEIGHT, (float) (i - mOffset));
+            blackhole.consume(mLayout.translateX);
+            blackhole.consume(mLayout.translateY);
+            blackhole.consume(mLayout.scale);
+        }
+    }
+
+    @Benchmark
+    public void matrixFrame(Blackhole blackhole) {
+        mOffset += 0.0173;
+        final int mid = (int) Math.floor(mOffset + 0.5);
+        for (int i = mid - mHalfVisibleCount; i <= mid + mHalfVisibleCount; ++i) {
+            makeChildTransformer(i, imageWidth(i), (float) (i - mOffset));
+            blackhole.consume(mChildTransformer);
+            blackhole.consume(mReflectionTransformer);
+        }
+    }
+
+    @Benchmark
+    public void baselineMatrixFrame(Blackhole blackhole) {
+        mOffset += 0.0173;
+        final int mid = (int) Math.floor(mOffset + 0.5);
+        for (int i = mid - mHalfVisibleCount; i <= mid + mHalfVisibleCount; ++i) {
+            baselineMakeChildTransformer(imageWidth(i), (float) (i - mOffset));
+            blackhole.consume(mChildTransformer);
+            blackhole.consume(mReflectionTransformer);
+        }
+    }
+
+    private static int imageWidth(int i) {
+        return 400 + (i & 7) * 20;
+    }
+
+    /**
+     * As makeChildTransformer() of CoverFlowView
+     */
+    private void makeChildTransformer(int index, int imageWidth, float offset) {
+        final CoverFlowLayout t = mLayout;
+        t.transform(index, imageWidth, IMAGE_HEIGHT, offset);
+
+        mChildTransformer.setScale(t.scale, t.scale);
+        mChildTransformer.postTranslate(t.translateX, t.translateY - t.pivotY * t.scale);
+        mChildTransformer.postTranslate(0, t.pivotY);
+
+        mReflectionTransformer.setScale(t.scale, t.scale);
+        mReflectionTransformer.postTranslate(t.translateX,
+            t.reflectionTranslateY - t.pivotY * t.scale);
+        mReflectionTransformer.postTranslate(0, t.pivotY);
+    }
+
+    /**
+     * makeChildTransformer() of CoverFlowView before the placement moved to
+     * CoverFlowLayout, which worked out the layout again for every cover
+     */
+    private void baselineMakeChildTransformer(int imageWidth, float offset) {
+        mChildTransformer.reset();
+        mReflectionTransformer.reset();
+
+        final float scale = 1 - Math.abs(offset) * CoverFlowLayout.CARD_SCALE;
+        float translateX = 0;
+
+        final int originalChildHeight = (int) (CHILD_HEIGHT - CHILD_HEIGHT
+            * REFLECT_HEIGHT_FRACTION - REFLECT_GAP);
+        final int childTotalHeight = (int) (IMAGE_HEIGHT
+            + IMAGE_HEIGHT * REFLECT_HEIGHT_FRACTION + REFLECT_GAP);
+
+        final float originalChildHeightScale = (float) originalChildHeight
+            / IMAGE_HEIGHT;
+        final float childHeightScale = originalChildHeightScale * scale;
+        final int childWidth = (int) (imageWidth * childHeightScale);
+        final int centerChildWidth = (int) (imageWidth * originalChildHeightScale);
+        int leftSpace = ((WIDTH >> 1) - PADDING_LEFT)
+            - (centerChildWidth >> 1);
+        int rightSpace = (((WIDTH >> 1) - PADDING_RIGHT) - (centerChildWidth >> 1));
+
+        if (offset <= 0)
+            translateX = ((float) leftSpace / mHalfVisibleCount)
+                * (mHalfVisibleCount + offset) + PADDING_LEFT;
+
+        else
+            translateX = WIDTH - ((float) rightSpace / mHalfVisibleCount)
+                * (mHalfVisibleCount - offset) - childWidth
+                - PADDING_RIGHT;
+
+        mChildTransformer.preTranslate(0, -(childTotalHeight >> 1));
+        mChildTransformer.postScale(childHeightScale, childHeightScale);
+
+        float adjustedChildTranslateY = 0;
+        if (childHeightScale != 1) {
+            adjustedChildTranslateY = (CHILD_HEIGHT - childTotalHeight) >> 1;
+        }
+
+        mChildTransformer.postTranslate(translateX, CHILD_TRANSLATE_Y
+            + adjustedChildTranslateY);
+        mChildTransformer.postTranslate(0, (childTotalHeight >> 1));
+
+        mReflectionTransformer.preTranslate(0, -(childTotalHeight >> 1));
+        mReflectionTransformer.postScale(childHeightScale, childHeightScale);
+        mReflectionTransformer.postTranslate(translateX, REFLECTION_TRANSLATE_Y
+            * scale + adjustedChildTranslateY);
+        mReflectionTransformer.postTranslate(0, (childTotalHeight >> 1));
+    }
+
+    /**
+     * Stands in for android.graphics.Matrix, which needs a device. Keeps
+     * the full affine form, so neither way gets a shortcut.
+     */
+    static final class AffineMatrix {
+
+        float scaleX = 1;
+        float skewX;
+        float transX;
+        float skewY;
+        float scaleY = 1;
+        float transY;
+
+        void reset() {
+            setScale(1, 1);
+        }
+
+        void set(AffineMatrix m) {
+            scaleX = m.scaleX;
+            skewX = m.skewX;
+            transX = m.transX;
+            skewY = m.skewY;
+            scaleY = m.scaleY;
+            transY = m.transY;
+        }
+
+        void setScale(float sx, float sy) {
+            scaleX = sx;
+            skewX = 0;
+            transX = 0;
+            skewY = 0;
+            scaleY = sy;
+            transY = 0;
+        }
+
+        /**
+         * this = this * T(dx, dy)
+         */
+        void preTranslate(float dx, float dy) {
+            transX += scaleX * dx + skewX * dy;
+            transY += skewY * dx + scaleY * dy;
+        }
+
+        /**
+         * this = S(sx, sy) * this
+         */
+        void postScale(float sx, float sy) {
+            scaleX *= sx;
+            skewX *= sx;
+            transX *= sx;
+            skewY *= sy;
+            scaleY *= sy;
+            transY *= sy;
+        }
+
+        /**
+         * this = T(dx, dy) * this
+         */
+        void postTranslate(float dx, float dy) {
+            transX += dx;
+            transY += dy;
+        }
+
+        boolean nearlyEquals(AffineMatrix m) {
+            return Math.abs(scaleX - m.scaleX) < 1e-5f
+                && Math.abs(skewX - m.skewX) < 1e-5f
+                && Math.abs(transX - m.transX) < 0.01f
+                && Math.abs(skewY - m.skewY) < 1e-5f
+                && Math.abs(scaleY - m.scaleY) < 1e-5f
+                && Math.abs(transY - m.transY) < 0.01f;
+        }
+    }
+}
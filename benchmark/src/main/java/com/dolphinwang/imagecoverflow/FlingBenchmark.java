@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole swipe: a drag across the view followed by the fling it starts,
+ * until the covers rest. Offsets come from the touch and fling math
+ * CoverFlowView uses from CoverFlowLayout, and every frame does the work of
+ * onDraw() which runs without Android: wrapping, cache lookups and cover
+ * placement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlingBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int ITEM_COUNT = 1000;
+    private static final long FRAME_NANOS = 16666667;
+    private static final int DRAG_EVENTS = 12;
+    private static final int KIND_COUNT = 2;
+
+    @Param({"3", "7", "15"})
+    public int visibleCount;
+
+    private final CoverFlowLayout mLayout = new CoverFlowLayout();
+    private final Object mCover = new Object();
+    private LongLruCache<Object> mCache;
+    private int mHalfVisibleCount;
+    private double mOffset;
+
+    @Setup
+    public void setUp() {
+        mHalfVisibleCount = visibleCount >> 1;
+        mLayout.setLayout(WIDTH, 16, 16, 600, 0, 420, 0.3f, 10, mHalfVisibleCount);
+        mCache = new LongLruCache<Object>(visibleCount * KIND_COUNT * 3);
+    }
+
+    @Benchmark
+    public double swipe(Blackhole blackhole) {
+        // Drag from right to left at a constant speed, one event per frame
+        final float startX = WIDTH * 0.8f;
+        final float endX = WIDTH * 0.2f;
+        final double startOffset = mOffset;
+        final float touchStartPos = CoverFlowLayout.touchPosition(startX, WIDTH);
+        float x = startX;
+        for (int i = 1; i <= DRAG_EVENTS; ++i) {
+            x = startX + (endX - startX) * i / DRAG_EVENTS;
+            mOffset = startOffset + touchStartPos - CoverFlowLayout.touchPosition(x, WIDTH);
+            drawFrame(blackhole);
+        }
+
+        final double pixelsPerSecond = (endX - startX) / (DRAG_EVENTS * FRAME_NANOS / 1e9);
+        mLayout.startFling(mOffset, -CoverFlowLayout.flingSpeed(pixelsPerSecond, WIDTH));
+        final float duration = mLayout.getFlingDuration();
+        for (long nanos = FRAME_NANOS; nanos / 1e9f < duration; nanos += FRAME_NANOS) {
+            mOffset = mLayout.getFlingOffset(nanos / 1e9f);
+            drawFrame(blackhole);
+        }
+
+        // Rest on the nearest cover in the first loop
+        mOffset = PositionUtils.wrap(Math.floor(mOffset + 0.5) + mHalfVisibleCount, ITEM_COUNT)
+            - mHalfVisibleCount;
+        drawFrame(blackhole);
+        return mOffset;
+    }
+
+    private void drawFrame(Blackhole blackhole) {
+        final double offset = mOffset;
+        final int mid = (int) Math.floor(offset + 0.5);
+        for (int i = mid - mHalfVisibleCount; i <= mid + mHalfVisibleCount; ++i) {
+            final int position = PositionUtils.wrap((long) i + mHalfVisibleCount, ITEM_COUNT);
+            for (int kind = 0; kind < KIND_COUNT; ++kind) {
+                Object cover = mCache.get(position, kind);
+                if (cover == null) {
+                    cover = mCover;
+                    mCache.put(position, kind, cover);
+                }
+                blackhole.consume(cover);
+            }
+
+            mLayout.transform(i, 400 + (position & 7) * 20, 600, (float) (i - offset));
+            blackhole.consume(mLayout.translateX);
+            blackhole.consume(mLayout.scale);
+        }
+    }
+}
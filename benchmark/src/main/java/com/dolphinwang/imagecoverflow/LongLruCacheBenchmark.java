@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Get, and put on a miss, of derived covers under churn: the working set of
+ * item ids is larger than the cache, so lookups keep evicting. Compared with
+ * the LinkedHashMap based LruCache it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongLruCacheBenchmark {
+
+    private static final int ACCESSES = 4096;
+    private static final int CACHE_SIZE = 64;
+    private static final int KIND_COUNT = 2;
+
+    /**
+     * Distinct item ids accessed
+     */
+    @Param({"48", "256", "4096"})
+    public int workingSet;
+
+    private final Object mCover = new Object();
+    private final long[] mIds = new long[ACCESSES];
+    private final int[] mKinds = new int[ACCESSES];
+    private LongLruCache<Object> mCache;
+    private LinkedHashMapLruCache mLruCache;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        for (int i = 0; i < ACCESSES; ++i) {
+            // Stable ids are often large, hashed ids
+            mIds[i] = random.nextInt(workingSet) * 0x5deece66dL;
+            mKinds[i] = random.nextInt(KIND_COUNT);
+        }
+        mCache = new LongLruCache<Object>(CACHE_SIZE);
+        mLruCache = new LinkedHashMapLruCache(CACHE_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public void getOrPut(Blackhole blackhole) {
+        final LongLruCache<Object> cache = mCache;
+        for (int i = 0; i < ACCESSES; ++i) {
+            Object cover = cache.get(mIds[i], mKinds[i]);
+            if (cover == null) {
+                cover = mCover;
+                cache.put(mIds[i], mKinds[i], cover);
+            }
+            blackhole.consume(cover);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public void getOrPutLruCache(Blackhole blackhole) {
+        final LinkedHashMapLruCache cache = mLruCache;
+        for (int i = 0; i < ACCESSES; ++i) {
+            // Key and kind boxed into one key
+            final Long key = mIds[i] * KIND_COUNT + mKinds[i];
+            Object cover = cache.get(key);
+            if (cover == null) {
+                cover = mCover;
+                cache.put(key, cover);
+            }
+            blackhole.consume(cover);
+        }
+    }
+
+    /**
+     * Get and put of android.support.v4.util.LruCache, which is not
+     * available outside Android: a lock and an access ordered LinkedHashMap
+     */
+    private static final class LinkedHashMapLruCache {
+        private final LinkedHashMap<Long, Object> mMap =
+            new LinkedHashMap<Long, Object>(0, 0.75f, true);
+        private final int mMaxSize;
+        private int mSize;
+
+        LinkedHashMapLruCache(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        Object get(Long key) {
+            synchronized (this) {
+                return mMap.get(key);
+            }
+        }
+
+        Object put(Long key, Object value) {
+            final Object previous;
+            synchronized (this) {
+                mSize++;
+                previous = mMap.put(key, value);
+                if (previous != null) {
+                    mSize--;
+                }
+            }
+            trimToSize(mMaxSize);
+            return previous;
+        }
+
+        private void trimToSize(int maxSize) {
+            while (true) {
+                synchronized (this) {
+                    if (mSize <= maxSize || mMap.isEmpty()) {
+                        break;
+                    }
+                    final Map.Entry<Long, Object> eldest = mMap.entrySet().iterator().next();
+                    mMap.remove(eldest.getKey());
+                    mSize--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes of cover pixels in the memory-mapped store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelStoreBenchmark {
+
+    private static final int COVER_COUNT = 32;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Width and height of the stored covers
+     */
+    @Param({"128", "512"})
+    public int coverSize;
+
+    private File mFile;
+    private PixelStore mStore;
+    private ByteBuffer mPixels;
+    private final byte[] mRow = new byte[4096];
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("pixels", null);
+        mStore = new PixelStore(mFile, 256L * 1024 * 1024);
+        mPixels = ByteBuffer.allocateDirect(coverSize * coverSize * BYTES_PER_PIXEL);
+        for (int i = 0; i < COVER_COUNT; ++i) {
+            mPixels.clear();
+            mStore.put(nameOf(i), coverSize, coverSize, 0, mPixels);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mStore.close();
+        mFile.delete();
+    }
+
+    /**
+     * Look up a cover and read its pixels, as they are copied into a bitmap
+     */
+    @Benchmark
+    public int get() throws IOException {
+        final PixelStore.Entry entry = mStore.get(nameOf(mNext++ % COVER_COUNT));
+        final ByteBuffer pixels = entry.getPixels().duplicate();
+        int sum = 0;
+        while (pixels.hasRemaining()) {
+            final int length = Math.min(mRow.length, pixels.remaining());
+            pixels.get(mRow, 0, length);
+            sum += mRow[length - 1];
+        }
+        return sum;
+    }
+
+    /**
+     * Replace a cover, the store is cleared whenever it fills up
+     */
+    @Benchmark
+    public boolean put() throws IOException {
+        mPixels.clear();
+        if (!mStore.put(nameOf(mNext++ % COVER_COUNT), coverSize, coverSize, 0, mPixels)) {
+            mStore.clear();
+            return false;
+        }
+        return true;
+    }
+
+    private static String nameOf(int cover) {
+        return "cover" + cover;
+    }
+}
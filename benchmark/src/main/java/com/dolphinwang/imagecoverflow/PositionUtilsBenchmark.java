@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Roy Wang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dolphinwang.imagecoverflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wrapping of draw positions and offsets onto the data set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionUtilsBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    @Param({"20", "100000"})
+    public int itemCount;
+
+    private final long[] mPositions = new long[SAMPLES];
+    private final double[] mOffsets = new double[SAMPLES];
+
+    @Setup
+    public void setUp() {
+        // Mostly near the first loop, some after long sessions
+        final Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; ++i) {
+            final long loops = i % 8 == 0 ? random.nextInt(1000) - 500 : random.nextInt(3) - 1;
+            mPositions[i] = loops * itemCount + random.nextInt(itemCount);
+            mOffsets[i] = mPositions[i] + random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void wrapPosition(Blackhole blackhole) {
+        for (int i = 0; i < SAMPLES; ++i) {
+            blackhole.consume(PositionUtils.wrap(mPositions[i], itemCount));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void wrapOffset(Blackhole blackhole) {
+        for (int i = 0; i < SAMPLES; ++i) {
+            blackhole.consume(PositionUtils.wrap(mOffsets[i], itemCount));
+        }
+    }
+}